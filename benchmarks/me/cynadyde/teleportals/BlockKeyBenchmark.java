@@ -0,0 +1,62 @@
+package me.cynadyde.teleportals;
+
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks converting blocks to and from the keys gateway prisms store their links as.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BlockKeyBenchmark {
+
+    private Block block;
+    private BlockKey key;
+    private byte[] bytes;
+    private String legacyKey;
+
+    @Setup
+    public void setup() {
+
+        World world = FakeServer.install().createWorld("block_key_bench");
+        block = world.getBlockAt(100, 64, -200);
+        key = BlockKey.of(block);
+        bytes = key.toBytes();
+        legacyKey = world.getName() + ",100,64,-200";
+    }
+
+    @Benchmark
+    public BlockKey blockToKey() {
+        return BlockKey.of(block);
+    }
+
+    @Benchmark
+    public Block keyToBlock() {
+        return key.getBlock();
+    }
+
+    @Benchmark
+    public byte[] toBytes() {
+        return key.toBytes();
+    }
+
+    @Benchmark
+    public BlockKey fromBytes() {
+        return BlockKey.fromBytes(bytes);
+    }
+
+    @Benchmark
+    public BlockKey parseLegacy() {
+        return BlockKey.parse(legacyKey);
+    }
+}
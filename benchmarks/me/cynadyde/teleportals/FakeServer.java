@@ -0,0 +1,887 @@
+package me.cynadyde.teleportals;
+
+import com.sun.management.ThreadMXBean;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.GameMode;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
+import org.bukkit.Server;
+import org.bukkit.UnsafeValues;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.configuration.serialization.ConfigurationSerializable;
+import org.bukkit.configuration.serialization.ConfigurationSerialization;
+import org.bukkit.entity.ArmorStand;
+import org.bukkit.entity.EnderPearl;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Cancellable;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.entity.ProjectileLaunchEvent;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.inventory.EntityEquipment;
+import org.bukkit.inventory.ItemFactory;
+import org.bukkit.inventory.PlayerInventory;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.persistence.PersistentDataAdapterContext;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.plugin.java.JavaPluginLoader;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+import org.bukkit.util.Vector;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * An in-memory stand-in for a Bukkit server, just complete enough to enable the plugin
+ * and build, activate and use teleportals without a real server.
+ * Every server object is a dynamic proxy; getters and setters are backed by a property map,
+ * a few methods are given real behavior, and anything else does nothing.
+ * Events are dispatched to registered listeners, and scheduled tasks and thrown
+ * ender pearls only advance when the server is ticked. The time spent and memory allocated
+ * in listeners and tasks are totalled as the plugin's cost, including the fake server calls they make.
+ */
+final class FakeServer {
+
+    private static FakeServer installed;
+
+    private static final double PEARL_GRAVITY = 0.03;
+    private static final double PEARL_DRAG = 0.99;
+    private static final int PEARL_LIFETIME_TICKS = 100;
+    private static final int DATA_VERSION = 2586;
+    private static final ThreadMXBean THREADS = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final Map<UUID, World> worlds = new LinkedHashMap<>();
+    private final Map<UUID, Entity> entities = new HashMap<>();
+    private final List<Player> players = new ArrayList<>();
+    private final List<Pearl> pearls = new ArrayList<>();
+    private final List<RegisteredHandler> handlers = new ArrayList<>();
+    private final Map<Class<?>, List<RegisteredHandler>> handlersByEvent = new HashMap<>();
+    private final List<Task> tasks = new ArrayList<>();
+    private final Server server;
+    private TeleportalsPlugin plugin;
+    private long currentTick;
+    private int nextEntityId;
+    private int nextTaskId;
+    private int pluginDepth;
+    private long pluginStartNanos;
+    private long pluginStartBytes;
+    private long pluginNanos;
+    private long pluginBytes;
+
+    /**
+     * Install the fake server as Bukkit's server and enable the plugin on it, if not already done in this JVM.
+     */
+    static @NotNull FakeServer install() {
+
+        if (installed == null) {
+            installed = new FakeServer();
+            Bukkit.setServer(installed.server);
+            installed.enablePlugin();
+        }
+        return installed;
+    }
+
+    private FakeServer() {
+
+        Handler handler = new Handler(Server.class);
+        handler.override("getLogger", args -> Logger.getLogger("FakeServer"));
+        handler.override("getName", args -> "FakeServer");
+        handler.override("getVersion", args -> "in-memory");
+        handler.override("getBukkitVersion", args -> "1.16.5-R0.1-SNAPSHOT");
+        handler.override("isPrimaryThread", args -> true);
+        handler.override("getItemFactory", args -> ITEM_FACTORY);
+        handler.override("getUnsafe", args -> UNSAFE);
+        handler.override("getWorlds", args -> new ArrayList<>(worlds.values()));
+        handler.override("getWorld", args -> (args[0] instanceof UUID)
+                ? worlds.get(args[0])
+                : worlds.values().stream().filter(w -> w.getName().equals(args[0])).findFirst().orElse(null));
+        handler.override("getEntity", args -> entities.get(args[0]));
+        handler.override("getOnlinePlayers", args -> new ArrayList<>(players));
+        handler.override("getPluginManager", args -> createPluginManager());
+        handler.override("getScheduler", args -> createScheduler());
+        server = handler.create(Server.class);
+    }
+
+    /**
+     * Run one server tick: move the thrown ender pearls, then run the scheduled tasks that are due.
+     */
+    void tick() {
+
+        currentTick++;
+        for (Iterator<Pearl> iter = pearls.iterator(); iter.hasNext(); ) {
+            Pearl pearl = iter.next();
+            if (!pearl.valid || currentTick - pearl.launchedTick > PEARL_LIFETIME_TICKS) {
+                pearl.valid = false;
+                iter.remove();
+                continue;
+            }
+            pearl.location.add(pearl.velocity);
+            pearl.velocity.multiply(PEARL_DRAG).setY(pearl.velocity.getY() - PEARL_GRAVITY);
+        }
+        for (Task task : new ArrayList<>(tasks)) {
+            if (task.cancelled || task.nextTick > currentTick) {
+                continue;
+            }
+            runPluginCode(task.runnable);
+            if (task.period > 0) {
+                task.nextTick = currentTick + task.period;
+            }
+            else {
+                task.cancelled = true;
+            }
+        }
+        tasks.removeIf(task -> task.cancelled);
+    }
+
+    /**
+     * Dispatch the given event to every registered listener handling it, in priority order.
+     */
+    void callEvent(@NotNull Event event) {
+
+        List<RegisteredHandler> eventHandlers = handlersByEvent.computeIfAbsent(event.getClass(), type -> {
+            List<RegisteredHandler> matching = new ArrayList<>();
+            for (RegisteredHandler registered : handlers) {
+                if (registered.method.getParameterTypes()[0].isAssignableFrom(type)) {
+                    matching.add(registered);
+                }
+            }
+            matching.sort(Comparator.comparing(registered -> registered.annotation.priority()));
+            return matching;
+        });
+        for (RegisteredHandler registered : eventHandlers) {
+            if (registered.annotation.ignoreCancelled() && event instanceof Cancellable && ((Cancellable) event).isCancelled()) {
+                continue;
+            }
+            runPluginCode(() -> {
+                try {
+                    registered.method.invoke(registered.listener, event);
+                }
+                catch (IllegalAccessException ex) {
+                    throw new IllegalStateException(ex);
+                }
+                catch (InvocationTargetException ex) {
+                    throw new IllegalStateException("an event handler threw an exception", ex.getCause());
+                }
+            });
+        }
+    }
+
+    /**
+     * Get the total time spent in the plugin's listeners and tasks, in nanoseconds.
+     */
+    long getPluginNanos() {
+        return pluginNanos;
+    }
+
+    /**
+     * Get the total memory allocated in the plugin's listeners and tasks, in bytes,
+     * or zero if the JVM does not measure thread allocation.
+     */
+    long getPluginAllocatedBytes() {
+        return pluginBytes;
+    }
+
+    /**
+     * Run some of the plugin's code, adding its cost to the totals unless it was
+     * called from other plugin code that is already being measured.
+     */
+    private void runPluginCode(@NotNull Runnable code) {
+
+        if (pluginDepth++ == 0) {
+            pluginStartBytes = allocatedBytes();
+            pluginStartNanos = System.nanoTime();
+        }
+        try {
+            code.run();
+        }
+        finally {
+            if (--pluginDepth == 0) {
+                pluginNanos += System.nanoTime() - pluginStartNanos;
+                pluginBytes += allocatedBytes() - pluginStartBytes;
+            }
+        }
+    }
+
+    private static long allocatedBytes() {
+        return THREADS.isThreadAllocatedMemorySupported() ? THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) : 0L;
+    }
+
+    /**
+     * Get the plugin enabled on this server.
+     */
+    @NotNull TeleportalsPlugin getPlugin() {
+        return plugin;
+    }
+
+    /**
+     * Create an empty world with the given name.
+     */
+    @NotNull World createWorld(@NotNull String name) {
+
+        UUID uid = UUID.nameUUIDFromBytes(name.getBytes());
+        Map<Long, Material> types = new HashMap<>();
+        Map<Long, Block> blocks = new HashMap<>();
+        Map<Long, List<Entity>> chunkEntities = new HashMap<>();
+        Map<Long, Chunk> chunks = new LinkedHashMap<>();
+
+        Handler handler = new Handler(World.class);
+        World world = handler.create(World.class);
+
+        handler.override("getUID", args -> uid);
+        handler.override("getName", args -> name);
+        handler.override("getBlockAt", args -> {
+            if (args.length == 1) {
+                Location loc = (Location) args[0];
+                return world.getBlockAt(loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
+            }
+            int x = (Integer) args[0];
+            int y = (Integer) args[1];
+            int z = (Integer) args[2];
+            return blocks.computeIfAbsent(Utils.packBlock(x, y, z), k -> createBlock(world, types, x, y, z));
+        });
+        handler.override("isChunkLoaded", args -> true);
+        handler.override("getChunkAt", args -> {
+            int chunkX = (args.length == 1) ? ((Location) args[0]).getBlockX() >> 4 : (Integer) args[0];
+            int chunkZ = (args.length == 1) ? ((Location) args[0]).getBlockZ() >> 4 : (Integer) args[1];
+            return chunks.computeIfAbsent(Utils.packChunk(chunkX, chunkZ), k -> createChunk(world, chunkEntities, chunkX, chunkZ));
+        });
+        handler.override("getLoadedChunks", args -> chunks.values().toArray(new Chunk[0]));
+        handler.override("getPlayers", args -> {
+            List<Player> inWorld = new ArrayList<>();
+            for (Player player : players) {
+                if (player.getWorld() == world) {
+                    inWorld.add(player);
+                }
+            }
+            return inWorld;
+        });
+        handler.override("getEntities", args -> {
+            List<Entity> all = new ArrayList<>();
+            chunkEntities.values().forEach(all::addAll);
+            return all;
+        });
+        handler.override("spawnEntity", args -> {
+            Location loc = ((Location) args[0]).clone();
+            List<Entity> inChunk = chunkEntities.computeIfAbsent(
+                    Utils.packChunk(loc.getBlockX() >> 4, loc.getBlockZ() >> 4), k -> new ArrayList<>());
+            Entity entity = createArmorStand(world, inChunk, loc);
+            inChunk.add(entity);
+            entities.put(entity.getUniqueId(), entity);
+            return entity;
+        });
+        handler.override("getNearbyEntities", args -> {
+            Location origin = (Location) args[0];
+            double dx = (Double) args[1];
+            double dy = (Double) args[2];
+            double dz = (Double) args[3];
+            List<Entity> nearby = new ArrayList<>();
+            for (int chunkX = (int) Math.floor(origin.getX() - dx) >> 4; chunkX <= (int) Math.floor(origin.getX() + dx) >> 4; chunkX++) {
+                for (int chunkZ = (int) Math.floor(origin.getZ() - dz) >> 4; chunkZ <= (int) Math.floor(origin.getZ() + dz) >> 4; chunkZ++) {
+                    for (Entity entity : chunkEntities.getOrDefault(Utils.packChunk(chunkX, chunkZ), Collections.emptyList())) {
+                        Location loc = entity.getLocation();
+                        if (Math.abs(loc.getX() - origin.getX()) <= dx
+                                && Math.abs(loc.getY() - origin.getY()) <= dy
+                                && Math.abs(loc.getZ() - origin.getZ()) <= dz) {
+                            nearby.add(entity);
+                        }
+                    }
+                }
+            }
+            return nearby;
+        });
+        worlds.put(uid, world);
+        return world;
+    }
+
+    /**
+     * Create an entity that can be teleported, standing at the given location.
+     */
+    @NotNull Entity createTraveller(@NotNull Location location) {
+
+        Handler handler = new Handler(Entity.class);
+        Location[] current = {location.clone()};
+        handler.override("getType", args -> EntityType.ENDER_PEARL);
+        handler.override("getUniqueId", args -> UUID.randomUUID());
+        handler.override("getWorld", args -> current[0].getWorld());
+        handler.override("getLocation", args -> current[0].clone());
+        handler.override("teleport", args -> {
+            current[0] = ((Location) args[0]).clone();
+            return true;
+        });
+        return handler.create(Entity.class);
+    }
+
+    /**
+     * Load the chunk at the given chunk coordinates, firing a chunk load event for it.
+     */
+    @NotNull Chunk loadChunk(@NotNull World world, int chunkX, int chunkZ) {
+
+        Chunk chunk = world.getChunkAt(chunkX, chunkZ);
+        callEvent(new ChunkLoadEvent(chunk, false));
+        return chunk;
+    }
+
+    /**
+     * Create a player with every player permission, standing at the given location, and let them join.
+     */
+    @NotNull Player createPlayer(@NotNull String name, @NotNull Location location) {
+
+        UUID uuid = UUID.nameUUIDFromBytes(("OfflinePlayer:" + name).getBytes());
+        int entityId = ++nextEntityId;
+        Location[] current = {location.clone()};
+        PlayerInventory inventory = new Handler(PlayerInventory.class).create(PlayerInventory.class);
+
+        Handler handler = new Handler(Player.class);
+        handler.props.put("Sneaking", false);
+        handler.override("getType", args -> EntityType.PLAYER);
+        handler.override("getName", args -> name);
+        handler.override("getUniqueId", args -> uuid);
+        handler.override("getEntityId", args -> entityId);
+        handler.override("getGameMode", args -> GameMode.SURVIVAL);
+        handler.override("getInventory", args -> inventory);
+        handler.override("hasPermission", args -> String.valueOf(args[0]).startsWith("teleportals.player."));
+        handler.override("isOnline", args -> true);
+        handler.override("isValid", args -> true);
+        handler.override("getWorld", args -> current[0].getWorld());
+        handler.override("getLocation", args -> copyLocation(current[0], args));
+        handler.override("teleport", args -> {
+            current[0] = ((Location) args[0]).clone();
+            return true;
+        });
+        Player player = handler.create(Player.class);
+        players.add(player);
+        entities.put(uuid, player);
+        return player;
+    }
+
+    /**
+     * Throw an ender pearl from the given shooter at the given location and velocity,
+     * firing a projectile launch event for it.
+     */
+    @NotNull EnderPearl launchPearl(@NotNull Entity shooter, @NotNull Location location, @NotNull Vector velocity) {
+
+        Pearl pearl = new Pearl(location.clone(), velocity.clone());
+        UUID uuid = UUID.randomUUID();
+        int entityId = ++nextEntityId;
+
+        Handler handler = new Handler(EnderPearl.class);
+        handler.override("getType", args -> EntityType.ENDER_PEARL);
+        handler.override("getUniqueId", args -> uuid);
+        handler.override("getEntityId", args -> entityId);
+        handler.override("getShooter", args -> shooter);
+        handler.override("getWorld", args -> pearl.location.getWorld());
+        handler.override("getLocation", args -> copyLocation(pearl.location, args));
+        handler.override("getVelocity", args -> pearl.velocity.clone());
+        handler.override("isValid", args -> pearl.valid);
+        handler.override("remove", args -> {
+            pearl.valid = false;
+            entities.remove(uuid);
+            return null;
+        });
+        EnderPearl entity = handler.create(EnderPearl.class);
+        pearls.add(pearl);
+        entities.put(uuid, entity);
+        callEvent(new ProjectileLaunchEvent(entity));
+        return entity;
+    }
+
+    /**
+     * Get the number of ender pearls still in flight.
+     */
+    int getPearlCount() {
+        return pearls.size();
+    }
+
+    private static @NotNull Location copyLocation(@NotNull Location location, @NotNull Object[] args) {
+
+        if (args.length == 1 && args[0] != null) {
+            Location into = (Location) args[0];
+            into.setWorld(location.getWorld());
+            into.setX(location.getX());
+            into.setY(location.getY());
+            into.setZ(location.getZ());
+            into.setYaw(location.getYaw());
+            into.setPitch(location.getPitch());
+            return into;
+        }
+        return location.clone();
+    }
+
+    private @NotNull PluginManager createPluginManager() {
+
+        Handler handler = new Handler(PluginManager.class);
+        handler.override("callEvent", args -> {
+            callEvent((Event) args[0]);
+            return null;
+        });
+        handler.override("registerEvents", args -> {
+            Listener listener = (Listener) args[0];
+            for (Method method : listener.getClass().getMethods()) {
+                EventHandler annotation = method.getAnnotation(EventHandler.class);
+                if (annotation != null && method.getParameterCount() == 1) {
+                    handlers.add(new RegisteredHandler(listener, method, annotation));
+                }
+            }
+            handlersByEvent.clear();
+            return null;
+        });
+        return handler.create(PluginManager.class);
+    }
+
+    private @NotNull BukkitScheduler createScheduler() {
+
+        Handler handler = new Handler(BukkitScheduler.class);
+        handler.override("scheduleSyncRepeatingTask", args -> schedule((Runnable) args[1], (Long) args[2], (Long) args[3]).id);
+        handler.override("scheduleSyncDelayedTask", args -> schedule((Runnable) args[1], (args.length == 3) ? (Long) args[2] : 0L, -1L).id);
+        handler.override("runTask", args -> schedule((Runnable) args[1], 0L, -1L).handle);
+        handler.override("runTaskLater", args -> schedule((Runnable) args[1], (Long) args[2], -1L).handle);
+        handler.override("runTaskTimer", args -> schedule((Runnable) args[1], (Long) args[2], (Long) args[3]).handle);
+        handler.override("runTaskAsynchronously", args -> {
+            // there is no other thread to run on, so background work runs as soon as it is submitted...
+            ((Runnable) args[1]).run();
+            return null;
+        });
+        handler.override("cancelTasks", args -> {
+            tasks.forEach(task -> task.cancelled = true);
+            return null;
+        });
+        handler.override("cancelTask", args -> {
+            tasks.stream().filter(task -> task.id == (Integer) args[0]).forEach(task -> task.cancelled = true);
+            return null;
+        });
+        return handler.create(BukkitScheduler.class);
+    }
+
+    private @NotNull Task schedule(@NotNull Runnable runnable, long delay, long period) {
+
+        Task task = new Task(++nextTaskId, runnable, currentTick + Math.max(1L, delay), period);
+        tasks.add(task);
+        return task;
+    }
+
+    private void enablePlugin() {
+
+        try {
+            File dataFolder = Files.createTempDirectory("teleportals-bench").toFile();
+            PluginDescriptionFile description = new PluginDescriptionFile(
+                    "Teleportals", "bench", TeleportalsPlugin.class.getName());
+            @SuppressWarnings("deprecation")
+            JavaPluginLoader loader = new JavaPluginLoader(server);
+            plugin = new TeleportalsPlugin(loader, description, dataFolder, new File(dataFolder, "Teleportals.jar"));
+            plugin.onEnable();
+        }
+        catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static @NotNull Block createBlock(@NotNull World world, @NotNull Map<Long, Material> types, int x, int y, int z) {
+
+        long key = Utils.packBlock(x, y, z);
+        Handler handler = new Handler(Block.class);
+        Block block = handler.create(Block.class);
+
+        handler.override("getX", args -> x);
+        handler.override("getY", args -> y);
+        handler.override("getZ", args -> z);
+        handler.override("getWorld", args -> world);
+        handler.override("getChunk", args -> world.getChunkAt(x >> 4, z >> 4));
+        handler.override("getType", args -> types.getOrDefault(key, Material.AIR));
+        handler.override("setType", args -> types.put(key, (Material) args[0]));
+        handler.override("getBlockData", args -> new Handler(BlockData.class).create(BlockData.class));
+        handler.override("getLocation", args -> {
+            if (args.length == 1 && args[0] != null) {
+                Location loc = (Location) args[0];
+                loc.setWorld(world);
+                loc.setX(x);
+                loc.setY(y);
+                loc.setZ(z);
+                return loc;
+            }
+            return new Location(world, x, y, z);
+        });
+        handler.override("getRelative", args -> {
+            if (args.length == 3) {
+                return world.getBlockAt(x + (Integer) args[0], y + (Integer) args[1], z + (Integer) args[2]);
+            }
+            BlockFace face = (BlockFace) args[0];
+            int distance = (args.length == 2) ? (Integer) args[1] : 1;
+            return world.getBlockAt(x + face.getModX() * distance, y + face.getModY() * distance, z + face.getModZ() * distance);
+        });
+        handler.override("equals", args -> args[0] instanceof Block
+                && ((Block) args[0]).getWorld() == world
+                && ((Block) args[0]).getX() == x && ((Block) args[0]).getY() == y && ((Block) args[0]).getZ() == z);
+        handler.override("hashCode", args -> Long.hashCode(key));
+        return block;
+    }
+
+    private static @NotNull Chunk createChunk(@NotNull World world, @NotNull Map<Long, List<Entity>> chunkEntities, int chunkX, int chunkZ) {
+
+        long key = Utils.packChunk(chunkX, chunkZ);
+        PersistentDataContainer container = createContainer();
+        Handler handler = new Handler(Chunk.class);
+        handler.override("getX", args -> chunkX);
+        handler.override("getZ", args -> chunkZ);
+        handler.override("getWorld", args -> world);
+        handler.override("isLoaded", args -> true);
+        handler.override("getEntities", args -> chunkEntities.getOrDefault(key, Collections.emptyList()).toArray(new Entity[0]));
+        handler.override("getBlock", args -> world.getBlockAt((chunkX << 4) + (Integer) args[0], (Integer) args[1], (chunkZ << 4) + (Integer) args[2]));
+        handler.override("getPersistentDataContainer", args -> container);
+        return handler.create(Chunk.class);
+    }
+
+    private @NotNull Entity createArmorStand(@NotNull World world, @NotNull List<Entity> inChunk, @NotNull Location location) {
+
+        UUID uuid = UUID.randomUUID();
+        int entityId = ++nextEntityId;
+        boolean[] valid = {true};
+        EntityEquipment equipment = new Handler(EntityEquipment.class).create(EntityEquipment.class);
+        PersistentDataContainer container = createContainer();
+
+        Handler handler = new Handler(ArmorStand.class);
+        ArmorStand stand = handler.create(ArmorStand.class);
+
+        handler.override("getType", args -> EntityType.ARMOR_STAND);
+        handler.override("getUniqueId", args -> uuid);
+        handler.override("getEntityId", args -> entityId);
+        handler.override("getWorld", args -> world);
+        handler.override("getLocation", args -> copyLocation(location, args));
+        handler.override("getFacing", args -> Utils.yawToBlockFace(location.getYaw()));
+        handler.override("getEquipment", args -> equipment);
+        handler.override("getPersistentDataContainer", args -> container);
+        handler.override("isValid", args -> valid[0]);
+        handler.override("remove", args -> {
+            valid[0] = false;
+            inChunk.remove(stand);
+            entities.remove(uuid);
+            return null;
+        });
+        return stand;
+    }
+
+    private static final UnsafeValues UNSAFE = createUnsafe();
+
+    private static @NotNull UnsafeValues createUnsafe() {
+
+        Handler handler = new Handler(UnsafeValues.class);
+        handler.override("getDataVersion", args -> DATA_VERSION);
+        handler.override("getMaterial", args -> Material.getMaterial((String) args[0]));
+        return handler.create(UnsafeValues.class);
+    }
+
+    private static final ItemFactory ITEM_FACTORY = createItemFactory();
+
+    private static @NotNull ItemFactory createItemFactory() {
+
+        Handler handler = new Handler(ItemFactory.class);
+        handler.override("getItemMeta", args -> createMeta(null, null, createContainer()));
+        handler.override("isApplicable", args -> true);
+        handler.override("asMetaFor", args -> args[0]);
+        handler.override("updateMaterial", args -> args[1]);
+        handler.override("equals", args -> (args.length == 2) ? Objects.equals(args[0], args[1]) : false);
+        return handler.create(ItemFactory.class);
+    }
+
+    private static @NotNull ItemMeta createMeta(String displayName, List<String> lore, @NotNull PersistentDataContainer container) {
+
+        Handler handler = new Handler(ItemMeta.class);
+        handler.props.put("DisplayName", displayName);
+        handler.props.put("Lore", (lore == null) ? null : new ArrayList<>(lore));
+
+        handler.override("hasDisplayName", args -> handler.props.get("DisplayName") != null);
+        handler.override("hasLore", args -> handler.props.get("Lore") != null);
+        handler.override("getLore", args -> {
+            Object current = handler.props.get("Lore");
+            return (current == null) ? null : new ArrayList<>((List<?>) current);
+        });
+        handler.override("setLore", args -> handler.props.put("Lore", (args[0] == null) ? null : new ArrayList<>((List<?>) args[0])));
+        handler.override("getPersistentDataContainer", args -> container);
+        handler.override("serialize", args -> {
+            Map<String, Object> map = new HashMap<>();
+            if (handler.props.get("DisplayName") != null) {
+                map.put("display-name", handler.props.get("DisplayName"));
+            }
+            if (handler.props.get("Lore") != null) {
+                map.put("lore", new ArrayList<>((List<?>) handler.props.get("Lore")));
+            }
+            map.put("data", serializeContainer(container));
+            return map;
+        });
+        handler.override("clone", args -> {
+            @SuppressWarnings("unchecked")
+            List<String> currentLore = (List<String>) handler.props.get("Lore");
+            return createMeta((String) handler.props.get("DisplayName"), currentLore, copyContainer(container));
+        });
+        return handler.create(ItemMeta.class);
+    }
+
+    private static final Map<PersistentDataContainer, Map<NamespacedKey, Object>> CONTAINERS = new WeakHashMap<>();
+    private static final PersistentDataAdapterContext ADAPTER_CONTEXT = createAdapterContext();
+
+    private static @NotNull PersistentDataAdapterContext createAdapterContext() {
+
+        Handler handler = new Handler(PersistentDataAdapterContext.class);
+        handler.override("newPersistentDataContainer", args -> createContainer());
+        return handler.create(PersistentDataAdapterContext.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static @NotNull PersistentDataContainer createContainer() {
+
+        Map<NamespacedKey, Object> values = new HashMap<>();
+        Handler handler = new Handler(PersistentDataContainer.class);
+        PersistentDataContainer container = handler.create(PersistentDataContainer.class);
+
+        handler.override("set", args -> values.put((NamespacedKey) args[0],
+                ((PersistentDataType<?, Object>) args[1]).toPrimitive(args[2], null)));
+        handler.override("get", args -> {
+            Object primitive = values.get(args[0]);
+            PersistentDataType<Object, ?> type = (PersistentDataType<Object, ?>) args[1];
+            return (primitive == null || !type.getPrimitiveType().isInstance(primitive)) ? null : type.fromPrimitive(primitive, null);
+        });
+        handler.override("has", args -> {
+            Object primitive = values.get(args[0]);
+            return primitive != null && ((PersistentDataType<?, ?>) args[1]).getPrimitiveType().isInstance(primitive);
+        });
+        handler.override("remove", args -> values.remove(args[0]));
+        handler.override("isEmpty", args -> values.isEmpty());
+        handler.override("getKeys", args -> new HashSet<>(values.keySet()));
+        handler.override("getAdapterContext", args -> ADAPTER_CONTEXT);
+        CONTAINERS.put(container, values);
+        return container;
+    }
+
+    private static @NotNull PersistentDataContainer copyContainer(@NotNull PersistentDataContainer container) {
+
+        PersistentDataContainer copy = createContainer();
+        CONTAINERS.get(copy).putAll(CONTAINERS.get(container));
+        return copy;
+    }
+
+    private static @NotNull Map<String, Object> serializeContainer(@NotNull PersistentDataContainer container) {
+
+        Map<String, Object> map = new HashMap<>();
+        for (Map.Entry<NamespacedKey, Object> entry : CONTAINERS.get(container).entrySet()) {
+            Object value = entry.getValue();
+            map.put(entry.getKey().toString(),
+                    (value instanceof PersistentDataContainer) ? serializeContainer((PersistentDataContainer) value) : value);
+        }
+        return map;
+    }
+
+    @SuppressWarnings({"deprecation", "unchecked"})
+    private static @NotNull PersistentDataContainer deserializeContainer(@NotNull Map<String, Object> map) {
+
+        PersistentDataContainer container = createContainer();
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            String[] key = entry.getKey().split(":", 2);
+            Object value = entry.getValue();
+            CONTAINERS.get(container).put(new NamespacedKey(key[0], key[1]),
+                    (value instanceof Map) ? deserializeContainer((Map<String, Object>) value) : value);
+        }
+        return container;
+    }
+
+    static {
+        // item metas are proxies, so they are serialized under the name of their proxy class...
+        ConfigurationSerialization.registerClass(SerializedMeta.class,
+                Proxy.getProxyClass(FakeServer.class.getClassLoader(), ItemMeta.class).getName());
+    }
+
+    /**
+     * Reads back the item metas of serialized item stacks, as when teleportals store their gateway prisms.
+     */
+    public abstract static class SerializedMeta implements ConfigurationSerializable {
+
+        @SuppressWarnings("unchecked")
+        public static @NotNull ItemMeta deserialize(@NotNull Map<String, Object> map) {
+
+            Object data = map.get("data");
+            return createMeta((String) map.get("display-name"), (List<String>) map.get("lore"),
+                    deserializeContainer((data instanceof Map) ? (Map<String, Object>) data : Collections.emptyMap()));
+        }
+    }
+
+    /**
+     * An ender pearl in flight.
+     */
+    private final class Pearl {
+
+        private final Location location;
+        private final Vector velocity;
+        private final long launchedTick = currentTick;
+        private boolean valid = true;
+
+        private Pearl(@NotNull Location location, @NotNull Vector velocity) {
+            this.location = location;
+            this.velocity = velocity;
+        }
+    }
+
+    /**
+     * A task given to the scheduler.
+     */
+    private static final class Task {
+
+        private final int id;
+        private final Runnable runnable;
+        private final long period;
+        private final BukkitTask handle;
+        private long nextTick;
+        private boolean cancelled;
+
+        private Task(int id, @NotNull Runnable runnable, long nextTick, long period) {
+            this.id = id;
+            this.runnable = runnable;
+            this.nextTick = nextTick;
+            this.period = period;
+
+            Handler handler = new Handler(BukkitTask.class);
+            handler.override("getTaskId", args -> id);
+            handler.override("isCancelled", args -> cancelled);
+            handler.override("cancel", args -> {
+                cancelled = true;
+                return null;
+            });
+            this.handle = handler.create(BukkitTask.class);
+        }
+    }
+
+    /**
+     * An event handler method of a registered listener.
+     */
+    private static final class RegisteredHandler {
+
+        private final Listener listener;
+        private final Method method;
+        private final EventHandler annotation;
+
+        private RegisteredHandler(@NotNull Listener listener, @NotNull Method method, @NotNull EventHandler annotation) {
+            this.listener = listener;
+            this.method = method;
+            this.annotation = annotation;
+        }
+    }
+
+    /**
+     * Backs a proxied server object with a property map and a table of overridden methods.
+     */
+    private static final class Handler implements InvocationHandler {
+
+        private final Class<?> type;
+        private final Map<String, Object> props = new HashMap<>();
+        private final Map<String, Function<Object[], Object>> overrides = new HashMap<>();
+
+        private Handler(@NotNull Class<?> type) {
+            this.type = type;
+        }
+
+        private void override(@NotNull String name, @NotNull Function<Object[], Object> behavior) {
+            overrides.put(name, behavior);
+        }
+
+        private @NotNull <T> T create(@NotNull Class<T> type) {
+            return type.cast(Proxy.newProxyInstance(FakeServer.class.getClassLoader(), new Class<?>[]{type}, this));
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+
+            String name = method.getName();
+            Object[] arguments = (args == null) ? new Object[0] : args;
+
+            Function<Object[], Object> behavior = overrides.get(name);
+            if (behavior != null) {
+                return adapt(behavior.apply(arguments), method.getReturnType());
+            }
+            switch (name) {
+                case "equals":
+                    return proxy == arguments[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Fake" + type.getSimpleName();
+            }
+            if (arguments.length == 1 && name.startsWith("set")) {
+                props.put(name.substring(3), arguments[0]);
+                return defaultValue(method.getReturnType());
+            }
+            if (arguments.length == 0 && name.startsWith("get") && props.containsKey(name.substring(3))) {
+                return props.get(name.substring(3));
+            }
+            if (arguments.length == 0 && name.startsWith("is") && props.containsKey(name.substring(2))) {
+                return props.get(name.substring(2));
+            }
+            return defaultValue(method.getReturnType());
+        }
+
+        private static Object adapt(Object value, @NotNull Class<?> returnType) {
+            return (returnType == void.class) ? null : (value == null) ? defaultValue(returnType) : value;
+        }
+
+        private static Object defaultValue(@NotNull Class<?> returnType) {
+
+            if (returnType == void.class) {
+                return null;
+            }
+            if (returnType == boolean.class) {
+                return false;
+            }
+            if (returnType.isPrimitive()) {
+                return Array.get(Array.newInstance(returnType, 1), 0);
+            }
+            if (returnType.isArray()) {
+                return Array.newInstance(returnType.getComponentType(), 0);
+            }
+            if (returnType == List.class || returnType == Collection.class) {
+                return new ArrayList<>();
+            }
+            if (returnType == Set.class) {
+                return new HashSet<>();
+            }
+            if (returnType == Map.class) {
+                return new HashMap<>();
+            }
+            if (returnType.isInterface()) {
+                return new Handler(returnType).create(returnType);
+            }
+            return null;
+        }
+    }
+}
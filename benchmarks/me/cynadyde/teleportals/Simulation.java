@@ -0,0 +1,321 @@
+package me.cynadyde.teleportals;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.entity.Player;
+import org.bukkit.event.block.Action;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.util.Vector;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A headless load simulation of the plugin on the in-memory server. Teleportals are built across
+ * several worlds, half of them linked in pairs and activated, and simulated players then link,
+ * activate, break and throw ender pearls into them while the server ticks.
+ * Reports the plugin's time per tick, its allocation rate and its teleport latencies, and exits
+ * with a failure status if any given limit is exceeded, so it can be run as a regression check.
+ *
+ * <p>Options are given as {@code name=value} arguments, for example
+ * {@code gradle simulate --args="players=2000 portals=10000 max-tick-p99-micros=2000"}.</p>
+ */
+public final class Simulation {
+
+    private static final int PORTAL_SPACING = 24;
+    private static final int PORTAL_Y = 64;
+    private static final int MAX_PICK_ATTEMPTS = 16;
+
+    private final int playerCount;
+    private final int portalCount;
+    private final int worldCount;
+    private final int ticks;
+    private final int warmupTicks;
+    private final int actionInterval;
+    private final long seed;
+    private final double maxTickP99Micros;
+    private final double maxTeleportP99Micros;
+
+    private final Random rng;
+    private final List<List<Block>> anchors = new ArrayList<>();
+    private final Map<Player, ItemStack> heldPrisms = new HashMap<>();
+    private FakeServer server;
+    private TeleportalsPlugin plugin;
+    private int pearlsThrown;
+    private int links;
+    private int activations;
+    private int breaks;
+
+    private Simulation(@NotNull Map<String, String> options) {
+
+        playerCount = Integer.parseInt(options.getOrDefault("players", "1000"));
+        portalCount = Integer.parseInt(options.getOrDefault("portals", "5000"));
+        worldCount = Integer.parseInt(options.getOrDefault("worlds", "3"));
+        ticks = Integer.parseInt(options.getOrDefault("ticks", "6000"));
+        warmupTicks = Integer.parseInt(options.getOrDefault("warmup-ticks", "600"));
+        actionInterval = Integer.parseInt(options.getOrDefault("action-interval", "100"));
+        seed = Long.parseLong(options.getOrDefault("seed", "1"));
+        maxTickP99Micros = Double.parseDouble(options.getOrDefault("max-tick-p99-micros", "0"));
+        maxTeleportP99Micros = Double.parseDouble(options.getOrDefault("max-teleport-p99-micros", "0"));
+        rng = new Random(seed);
+    }
+
+    public static void main(String[] args) {
+
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            if (split < 0) {
+                throw new IllegalArgumentException("expected an option of the form name=value: " + arg);
+            }
+            options.put(arg.substring(0, split).toLowerCase(Locale.ROOT), arg.substring(split + 1));
+        }
+        boolean passed = new Simulation(options).run();
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Set up the server, run the simulation and print its report.
+     * Returns false if any of the given limits were exceeded.
+     */
+    private boolean run() {
+
+        server = FakeServer.install();
+        plugin = server.getPlugin();
+        buildPortals();
+
+        List<Player> players = new ArrayList<>();
+        for (int i = 0; i < playerCount; i++) {
+            List<Block> worldAnchors = anchors.get(i % worldCount);
+            Block near = worldAnchors.get(rng.nextInt(worldAnchors.size()));
+            players.add(server.createPlayer("sim_player_" + i, near.getLocation().add(-3.5, 0.0, 0.5)));
+        }
+
+        long[] tickNanos = new long[ticks];
+        long measuredBytes = 0;
+        long wallStart = System.nanoTime();
+
+        for (int tick = -warmupTicks; tick < ticks; tick++) {
+            if (tick == 0) {
+                // the teleports timed during warmup are not part of the measurement...
+                plugin.getMetrics().resetTimers();
+            }
+            long nanosBefore = server.getPluginNanos();
+            long bytesBefore = server.getPluginAllocatedBytes();
+
+            for (Player player : players) {
+                if (rng.nextInt(actionInterval) == 0) {
+                    act(player);
+                }
+            }
+            server.tick();
+
+            if (tick >= 0) {
+                tickNanos[tick] = server.getPluginNanos() - nanosBefore;
+                measuredBytes += server.getPluginAllocatedBytes() - bytesBefore;
+            }
+        }
+        double wallSeconds = (System.nanoTime() - wallStart) / 1_000_000_000.0;
+
+        return report(tickNanos, measuredBytes, wallSeconds);
+    }
+
+    /**
+     * Build the teleportal structures on a grid in each world, load their chunks,
+     * and link and activate every other pair of them.
+     */
+    private void buildPortals() {
+
+        int perRow = (int) Math.ceil(Math.sqrt(Math.ceil(portalCount / (double) worldCount)));
+        List<World> worlds = new ArrayList<>();
+        for (int i = 0; i < worldCount; i++) {
+            worlds.add(server.createWorld("sim_world_" + i));
+            anchors.add(new ArrayList<>());
+        }
+        for (int i = 0; i < portalCount; i++) {
+            World world = worlds.get(i % worldCount);
+            int index = i / worldCount;
+            int x = (index % perRow) * PORTAL_SPACING;
+            int z = (index / perRow) * PORTAL_SPACING;
+
+            world.getBlockAt(x, PORTAL_Y - 1, z).setType(Material.OBSIDIAN);
+            world.getBlockAt(x, PORTAL_Y, z).setType(Material.ENDER_CHEST);
+            world.getBlockAt(x, PORTAL_Y + 1, z).setType(Material.OBSIDIAN);
+            anchors.get(i % worldCount).add(world.getBlockAt(x, PORTAL_Y, z));
+        }
+        for (int i = 0; i < worldCount; i++) {
+            for (Block anchor : anchors.get(i)) {
+                server.loadChunk(worlds.get(i), anchor.getX() >> 4, anchor.getZ() >> 4);
+            }
+        }
+        for (List<Block> worldAnchors : anchors) {
+            for (int i = 0; i + 3 < worldAnchors.size(); i += 4) {
+                activate(worldAnchors.get(i), worldAnchors.get(i + 1));
+                activate(worldAnchors.get(i + 1), worldAnchors.get(i));
+            }
+        }
+    }
+
+    private void activate(@NotNull Block anchor, @NotNull Block exit) {
+
+        GatewayPrism gatewayPrism = linkedPrism(exit);
+        Teleportal teleportal = Teleportal.getFromStruct(anchor);
+        if (gatewayPrism != null && teleportal != null) {
+            teleportal.activate(gatewayPrism);
+        }
+    }
+
+    /**
+     * Have the given player do one random thing with a teleportal.
+     */
+    private void act(@NotNull Player player) {
+
+        List<Block> worldAnchors = anchors.get(rng.nextInt(anchors.size()));
+        int roll = rng.nextInt(10);
+
+        if (roll < 6) {
+            Block anchor = pick(worldAnchors, Material.END_GATEWAY);
+            if (anchor != null) {
+                throwPearl(player, anchor);
+            }
+        }
+        else if (roll < 8) {
+            Block anchor = pick(worldAnchors, null);
+            if (anchor != null) {
+                ItemStack item = plugin.makeGatewayPrism(1);
+                heldPrisms.put(player, item);
+                player.getInventory().setItemInMainHand(item);
+                player.setSneaking(true);
+                server.callEvent(new PlayerInteractEvent(player, Action.RIGHT_CLICK_BLOCK, item, anchor, BlockFace.UP));
+                player.setSneaking(false);
+                links++;
+            }
+        }
+        else if (roll < 9) {
+            Block anchor = pick(worldAnchors, Material.ENDER_CHEST);
+            if (anchor != null) {
+                // use the prism the player last linked, or else one linked to a random teleportal...
+                ItemStack item = heldPrisms.remove(player);
+                if (item == null) {
+                    GatewayPrism gatewayPrism = linkedPrism(worldAnchors.get(rng.nextInt(worldAnchors.size())));
+                    item = (gatewayPrism == null) ? plugin.makeGatewayPrism(1) : gatewayPrism.getItem();
+                }
+                player.getInventory().setItemInMainHand(item);
+                server.callEvent(new PlayerInteractEvent(player, Action.RIGHT_CLICK_BLOCK, item, anchor, BlockFace.UP));
+                activations++;
+            }
+        }
+        else {
+            Block anchor = pick(worldAnchors, Material.END_GATEWAY);
+            if (anchor != null) {
+                // break the cap and build it straight back, leaving an unactivated teleportal...
+                Block cap = anchor.getRelative(BlockFace.UP);
+                server.callEvent(new BlockBreakEvent(cap, player));
+                cap.setType(Material.AIR);
+                cap.setType(Material.OBSIDIAN);
+                breaks++;
+            }
+        }
+    }
+
+    /**
+     * Stand the given player west of the given teleportal and throw an ender pearl into it.
+     */
+    private void throwPearl(@NotNull Player player, @NotNull Block anchor) {
+
+        Location standing = anchor.getLocation().add(-3.5, 0.0, 0.5);
+        standing.setYaw(-90.0f);
+        player.teleport(standing);
+        server.launchPearl(player, anchor.getLocation().add(-3.0, 0.5, 0.5), new Vector(0.8, 0.03, 0.0));
+        pearlsThrown++;
+    }
+
+    /**
+     * Pick a random teleportal anchor of the given block type, or of any type if null.
+     */
+    private @Nullable Block pick(@NotNull List<Block> worldAnchors, @Nullable Material type) {
+
+        for (int i = 0; i < MAX_PICK_ATTEMPTS; i++) {
+            Block anchor = worldAnchors.get(rng.nextInt(worldAnchors.size()));
+            if (type == null || anchor.getType() == type) {
+                return anchor;
+            }
+        }
+        return null;
+    }
+
+    private @Nullable GatewayPrism linkedPrism(@NotNull Block exit) {
+
+        GatewayPrism gatewayPrism = GatewayPrism.of(plugin.makeGatewayPrism(1));
+        Teleportal teleportal = Teleportal.getFromStruct(exit);
+        if (gatewayPrism == null || teleportal == null) {
+            return null;
+        }
+        teleportal.linkGatewayPrism(gatewayPrism);
+        return gatewayPrism;
+    }
+
+    /**
+     * Print the simulation's results and check them against the given limits.
+     */
+    private boolean report(long[] tickNanos, long measuredBytes, double wallSeconds) {
+
+        long[] sorted = tickNanos.clone();
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long nanos : sorted) {
+            total += nanos;
+        }
+        double meanMicros = (sorted.length == 0) ? 0.0 : (total / (double) sorted.length) / 1000.0;
+        double p50Micros = percentile(sorted, 0.50) / 1000.0;
+        double p99Micros = percentile(sorted, 0.99) / 1000.0;
+        double maxMicros = (sorted.length == 0) ? 0.0 : sorted[sorted.length - 1] / 1000.0;
+        double simulatedSeconds = ticks / 20.0;
+
+        Metrics.Timer teleports = plugin.getMetrics().get(Metrics.Timing.TELEPORT);
+        double teleportP99Micros = teleports.getP99Micros();
+
+        System.out.printf(Locale.ROOT, "Simulated %d ticks (after %d warmup) with %d players and %d teleportals across %d worlds in %.1fs, seed %d.%n",
+                ticks, warmupTicks, playerCount, portalCount, worldCount, wallSeconds, seed);
+        System.out.printf(Locale.ROOT, "Actions: %d pearls thrown, %d links, %d activations, %d breaks; %d pearls in flight.%n",
+                pearlsThrown, links, activations, breaks, server.getPearlCount());
+        System.out.printf(Locale.ROOT, "Plugin time per tick: mean %.1fus, p50 %.1fus, p99 %.1fus, max %.1fus.%n",
+                meanMicros, p50Micros, p99Micros, maxMicros);
+        System.out.printf(Locale.ROOT, "Plugin allocation: %.2f MB/s of simulated time, %.1f KB per tick.%n",
+                measuredBytes / simulatedSeconds / (1024.0 * 1024.0), measuredBytes / (double) Math.max(1, ticks) / 1024.0);
+        System.out.printf(Locale.ROOT, "Teleports: %d, latency p50 %.1fus, p99 %.1fus, max %.1fus.%n",
+                teleports.getCount(), teleports.getP50Micros(), teleportP99Micros, teleports.getMaxMicros());
+
+        boolean passed = true;
+        if (maxTickP99Micros > 0 && p99Micros > maxTickP99Micros) {
+            System.out.printf(Locale.ROOT, "FAILED: p99 plugin time per tick %.1fus is over the limit of %.1fus.%n", p99Micros, maxTickP99Micros);
+            passed = false;
+        }
+        if (maxTeleportP99Micros > 0 && teleportP99Micros > maxTeleportP99Micros) {
+            System.out.printf(Locale.ROOT, "FAILED: p99 teleport latency %.1fus is over the limit of %.1fus.%n", teleportP99Micros, maxTeleportP99Micros);
+            passed = false;
+        }
+        return passed;
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+
+        if (sorted.length == 0) {
+            return 0L;
+        }
+        int index = (int) Math.ceil(sorted.length * percentile) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
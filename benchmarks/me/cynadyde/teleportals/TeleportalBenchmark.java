@@ -0,0 +1,101 @@
+package me.cynadyde.teleportals;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.entity.Entity;
+import org.bukkit.inventory.ItemStack;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks finding teleportals from their blocks and teleporting through them,
+ * in an in-memory world holding a linked pair of activated teleportals.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TeleportalBenchmark {
+
+    private Block entranceAnchor;
+    private Block entranceCap;
+    private Block plainStone;
+    private Block unbuiltAnchor;
+    private Teleportal entrance;
+    private Entity traveller;
+
+    @Setup
+    public void setup() {
+
+        FakeServer server = FakeServer.install();
+        World world = server.createWorld("teleportal_bench");
+
+        entranceAnchor = buildStructure(world, 0, 64, 0);
+        Block exitAnchor = buildStructure(world, 500, 64, 500);
+        unbuiltAnchor = buildStructure(world, -500, 64, -500);
+        entranceCap = entranceAnchor.getRelative(BlockFace.UP);
+        plainStone = world.getBlockAt(10, 64, 10);
+        plainStone.setType(Material.STONE);
+
+        // link each teleportal's gateway prism to the other, then activate both...
+        activate(exitAnchor, entranceAnchor);
+        activate(entranceAnchor, exitAnchor);
+        entrance = Objects.requireNonNull(Teleportal.getFromStruct(entranceAnchor));
+
+        traveller = server.createTraveller(new Location(world, -3.5, 64, 0.5));
+    }
+
+    @Benchmark
+    public Teleportal getFromStructActivatedAnchor() {
+        return Teleportal.getFromStruct(entranceAnchor);
+    }
+
+    @Benchmark
+    public Teleportal getFromStructActivatedCap() {
+        return Teleportal.getFromStruct(entranceCap);
+    }
+
+    @Benchmark
+    public Teleportal getFromStructUnactivated() {
+        return Teleportal.getFromStruct(unbuiltAnchor);
+    }
+
+    @Benchmark
+    public Teleportal getFromStructUnrelatedBlock() {
+        return Teleportal.getFromStruct(plainStone);
+    }
+
+    @Benchmark
+    public Boolean teleport() {
+        return entrance.teleport(traveller, BlockFace.WEST, true, false).join();
+    }
+
+    private static @NotNull Block buildStructure(@NotNull World world, int x, int y, int z) {
+
+        world.getBlockAt(x, y - 1, z).setType(Material.OBSIDIAN);
+        world.getBlockAt(x, y, z).setType(Material.ENDER_CHEST);
+        world.getBlockAt(x, y + 1, z).setType(Material.OBSIDIAN);
+        return world.getBlockAt(x, y, z);
+    }
+
+    private static void activate(@NotNull Block anchor, @NotNull Block linkedTo) {
+
+        ItemStack item = TeleportalsPlugin.getInstance().makeGatewayPrism(1);
+        GatewayPrism gatewayPrism = Objects.requireNonNull(GatewayPrism.of(item));
+        Objects.requireNonNull(Teleportal.getFromStruct(linkedTo)).linkGatewayPrism(gatewayPrism);
+        if (!Objects.requireNonNull(Teleportal.getFromStruct(anchor)).activate(gatewayPrism)) {
+            throw new IllegalStateException("unable to activate the benchmark's teleportal");
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package me.cynadyde.teleportals;
+
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the lore, facing and formatting utilities.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UtilsBenchmark {
+
+    private ItemStack item;
+    private float yaw;
+
+    @Setup
+    public void setup() {
+
+        FakeServer.install();
+        item = new ItemStack(Material.GOLDEN_SWORD);
+        Utils.addLore(item, "&7Shift + right click to LINK.", "&7Right click to ACTIVATE.", "&r&5&o[gateway prism]");
+        Utils.setLoreData(item, "link", "world,100,64,-200");
+    }
+
+    @Benchmark
+    public boolean hasLoreTag() {
+        return Utils.hasLoreTag(item, "[gateway prism]");
+    }
+
+    @Benchmark
+    public boolean hasLoreData() {
+        return Utils.hasLoreData(item, "link");
+    }
+
+    @Benchmark
+    public String getLoreData() {
+        return Utils.getLoreData(item, "link");
+    }
+
+    @Benchmark
+    public ItemStack setLoreData() {
+        Utils.setLoreData(item, "link", "world,100,64,-200");
+        return item;
+    }
+
+    @Benchmark
+    public Object yawToBlockFace() {
+        yaw = (yaw + 37.5f) % 360f;
+        return Utils.yawToBlockFace(yaw);
+    }
+
+    @Benchmark
+    public String format() {
+        return Utils.format("&aTeleportal linked to &e%s &aat &b%d&a, &b%d&a, &b%d", "world", 100, 64, -200);
+    }
+}
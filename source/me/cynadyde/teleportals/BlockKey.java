@@ -0,0 +1,232 @@
+package me.cynadyde.teleportals;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.persistence.PersistentDataAdapterContext;
+import org.bukkit.persistence.PersistentDataType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * An immutable position of a block in a world, made of the world's UUID and the block's packed coordinates.
+ */
+public final class BlockKey {
+
+    /**
+     * The number of bytes in a block key's serialized form.
+     */
+    public static final int BYTES = 24;
+
+    /**
+     * Stores block keys in a persistent data container in their serialized form.
+     */
+    public static final PersistentDataType<byte[], BlockKey> TYPE = new PersistentDataType<byte[], BlockKey>() {
+
+        @Override
+        public @NotNull Class<byte[]> getPrimitiveType() {
+            return byte[].class;
+        }
+
+        @Override
+        public @NotNull Class<BlockKey> getComplexType() {
+            return BlockKey.class;
+        }
+
+        @Override
+        public @NotNull byte[] toPrimitive(@NotNull BlockKey complex, @NotNull PersistentDataAdapterContext context) {
+            return complex.toBytes();
+        }
+
+        @Override
+        public @NotNull BlockKey fromPrimitive(@NotNull byte[] primitive, @NotNull PersistentDataAdapterContext context) {
+            BlockKey key = fromBytes(primitive);
+            if (key == null) {
+                throw new IllegalArgumentException("malformed block key");
+            }
+            return key;
+        }
+    };
+
+    private final UUID worldId;
+    private final long packed;
+    private WeakReference<World> worldRef;
+
+    /**
+     * Get the key of the given block.
+     */
+    public static @NotNull BlockKey of(@NotNull Block block) {
+
+        BlockKey key = new BlockKey(block.getWorld().getUID(), Utils.packBlock(block.getX(), block.getY(), block.getZ()));
+        key.worldRef = new WeakReference<>(block.getWorld());
+        return key;
+    }
+
+    /**
+     * Get the key of the block at the given coordinates in the world with the given UUID.
+     */
+    public static @NotNull BlockKey of(@NotNull UUID worldId, int x, int y, int z) {
+        return new BlockKey(worldId, Utils.packBlock(x, y, z));
+    }
+
+    /**
+     * Read a block key from its serialized form, else null if it is malformed.
+     */
+    public static @Nullable BlockKey fromBytes(@Nullable byte[] bytes) {
+
+        if (bytes == null || bytes.length != BYTES) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new BlockKey(new UUID(buffer.getLong(), buffer.getLong()), buffer.getLong());
+    }
+
+    /**
+     * Read a block key from the legacy "world,x,y,z" string form, else null if
+     * it is malformed or the world it names is not loaded.
+     */
+    public static @Nullable BlockKey parse(@Nullable String legacyKey) {
+
+        if (legacyKey == null) {
+            return null;
+        }
+        try {
+            String[] tokens = legacyKey.split(",");
+
+            World world = Bukkit.getWorld(tokens[0]);
+
+            if (world != null) {
+
+                int xPos = Integer.parseInt(tokens[1]);
+                int yPos = Integer.parseInt(tokens[2]);
+                int zPos = Integer.parseInt(tokens[3]);
+
+                BlockKey key = new BlockKey(world.getUID(), Utils.packBlock(xPos, yPos, zPos));
+                key.worldRef = new WeakReference<>(world);
+                return key;
+            }
+        }
+        catch (IndexOutOfBoundsException | NumberFormatException ignored) {
+
+        }
+        return null;
+    }
+
+    private BlockKey(@NotNull UUID worldId, long packed) {
+        this.worldId = worldId;
+        this.packed = packed;
+    }
+
+    /**
+     * Get the serialized form of this block key.
+     */
+    public @NotNull byte[] toBytes() {
+
+        return ByteBuffer.allocate(BYTES)
+                .putLong(worldId.getMostSignificantBits())
+                .putLong(worldId.getLeastSignificantBits())
+                .putLong(packed)
+                .array();
+    }
+
+    /**
+     * Get the UUID of this block key's world.
+     */
+    public @NotNull UUID getWorldId() {
+        return worldId;
+    }
+
+    /**
+     * Get the packed coordinates of this block key.
+     */
+    public long getPacked() {
+        return packed;
+    }
+
+    /**
+     * Get the x coordinate of this block key.
+     */
+    public int getX() {
+        return Utils.unpackBlockX(packed);
+    }
+
+    /**
+     * Get the y coordinate of this block key.
+     */
+    public int getY() {
+        return Utils.unpackBlockY(packed);
+    }
+
+    /**
+     * Get the z coordinate of this block key.
+     */
+    public int getZ() {
+        return Utils.unpackBlockZ(packed);
+    }
+
+    /**
+     * Get the packed coordinates of the chunk this block key is in.
+     */
+    public long getChunkKey() {
+        return Utils.packChunk(getX() >> 4, getZ() >> 4);
+    }
+
+    /**
+     * Get this block key's world if it is loaded, else null.
+     */
+    public @Nullable World getWorld() {
+
+        World world = (worldRef == null) ? null : worldRef.get();
+        if (world == null) {
+            world = Bukkit.getWorld(worldId);
+            if (world != null) {
+                worldRef = new WeakReference<>(world);
+            }
+        }
+        return world;
+    }
+
+    /**
+     * Get the block this block key represents if its world is loaded, else null.
+     */
+    public @Nullable Block getBlock() {
+
+        World world = getWorld();
+        return (world == null) ? null : world.getBlockAt(getX(), getY(), getZ());
+    }
+
+    /**
+     * Check if this block key represents the given block.
+     */
+    public boolean matches(@NotNull Block block) {
+        return packed == Utils.packBlock(block.getX(), block.getY(), block.getZ())
+                && worldId.equals(block.getWorld().getUID());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof BlockKey)) {
+            return false;
+        }
+        BlockKey other = (BlockKey) obj;
+        return packed == other.packed && worldId.equals(other.worldId);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * worldId.hashCode() + Long.hashCode(packed);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s,%d,%d,%d", worldId, getX(), getY(), getZ());
+    }
+}
@@ -0,0 +1,225 @@
+package me.cynadyde.teleportals;
+
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Keeps the busiest teleportal destination chunks loaded with plugin chunk tickets, shared through {@link ChunkTickets}.
+ * Uses of each destination chunk are counted and halved every window, and a chunk is held
+ * once its count reaches a threshold, until its traffic dies down. The number of held chunks
+ * is capped per world and in total, releasing the least recently used chunk to make room.
+ */
+public class ChunkKeepalive {
+
+    /**
+     * A destination chunk's traffic.
+     */
+    private static final class Usage {
+
+        private int uses;
+        private long lastUsedTick;
+        private boolean ticketed;
+    }
+
+    private final ChunkTickets tickets;
+    private final Map<UUID, LinkedHashMap<Long, Usage>> worlds = new HashMap<>();
+    private int ticketCount;
+    private long currentTick;
+
+    /**
+     * Create a keepalive that holds chunks through the given tickets.
+     */
+    public ChunkKeepalive(@NotNull ChunkTickets tickets) {
+        this.tickets = tickets;
+    }
+
+    /**
+     * Advance to the given tick, decaying every destination's traffic if the given settings' window has passed.
+     */
+    public void tick(long currentTick, @NotNull Settings settings) {
+
+        this.currentTick = currentTick;
+        if (currentTick % settings.getKeepaliveWindowTicks() != 0) {
+            return;
+        }
+        for (Iterator<Map.Entry<UUID, LinkedHashMap<Long, Usage>>> worldIter = worlds.entrySet().iterator(); worldIter.hasNext(); ) {
+            Map.Entry<UUID, LinkedHashMap<Long, Usage>> worldEntry = worldIter.next();
+
+            for (Iterator<Map.Entry<Long, Usage>> iter = worldEntry.getValue().entrySet().iterator(); iter.hasNext(); ) {
+                Map.Entry<Long, Usage> entry = iter.next();
+                Usage usage = entry.getValue();
+
+                usage.uses >>= 1;
+                if (usage.uses == 0 || !settings.isKeepaliveEnabled()) {
+                    if (usage.ticketed) {
+                        removeTicket(worldEntry.getKey(), entry.getKey());
+                    }
+                    iter.remove();
+                }
+            }
+            if (worldEntry.getValue().isEmpty()) {
+                worldIter.remove();
+            }
+        }
+    }
+
+    /**
+     * Count a use of the chunk containing the given teleportal anchor,
+     * holding it loaded if it has become one of the busiest destinations.
+     */
+    public void recordUse(@NotNull Block anchor, @NotNull Settings settings) {
+
+        if (!settings.isKeepaliveEnabled()) {
+            return;
+        }
+        World world = anchor.getWorld();
+        long chunkKey = Utils.packChunk(anchor.getX() >> 4, anchor.getZ() >> 4);
+        LinkedHashMap<Long, Usage> chunks = worlds.computeIfAbsent(world.getUID(), k -> new LinkedHashMap<>(16, 0.75f, true));
+
+        Usage usage = chunks.get(chunkKey);
+        if (usage == null) {
+            chunks.put(chunkKey, usage = new Usage());
+        }
+        usage.uses++;
+        usage.lastUsedTick = currentTick;
+
+        if (!usage.ticketed && usage.uses >= settings.getKeepaliveMinUses()) {
+
+            // make room under the per-world budget, then under the total budget...
+            while (countTickets(chunks) >= settings.getKeepaliveMaxPerWorld()) {
+                if (!releaseLeastRecent(world, chunks)) {
+                    return;
+                }
+            }
+            while (ticketCount >= settings.getKeepaliveMaxTotal()) {
+                if (!releaseLeastRecentOverall()) {
+                    return;
+                }
+            }
+            tickets.acquire(world, chunkKey);
+            usage.ticketed = true;
+            ticketCount++;
+        }
+    }
+
+    /**
+     * Stop holding the chunk containing the given teleportal anchor, if it is held.
+     */
+    public void release(@NotNull Block anchor) {
+
+        LinkedHashMap<Long, Usage> chunks = worlds.get(anchor.getWorld().getUID());
+        if (chunks == null) {
+            return;
+        }
+        long chunkKey = Utils.packChunk(anchor.getX() >> 4, anchor.getZ() >> 4);
+        Usage usage = chunks.remove(chunkKey);
+        if (usage != null && usage.ticketed) {
+            removeTicket(anchor.getWorld().getUID(), chunkKey);
+        }
+        if (chunks.isEmpty()) {
+            worlds.remove(anchor.getWorld().getUID());
+        }
+    }
+
+    /**
+     * Get the number of chunks currently held.
+     */
+    public int getTicketCount() {
+        return ticketCount;
+    }
+
+    /**
+     * Forget every destination in the given world, whose tickets are discarded with it.
+     */
+    public void unloadWorld(@NotNull World world) {
+
+        LinkedHashMap<Long, Usage> chunks = worlds.remove(world.getUID());
+        if (chunks != null) {
+            ticketCount -= countTickets(chunks);
+        }
+    }
+
+    /**
+     * Stop holding every chunk and forget every destination.
+     */
+    public void clear() {
+
+        for (Map.Entry<UUID, LinkedHashMap<Long, Usage>> worldEntry : worlds.entrySet()) {
+            for (Map.Entry<Long, Usage> entry : worldEntry.getValue().entrySet()) {
+                if (entry.getValue().ticketed) {
+                    removeTicket(worldEntry.getKey(), entry.getKey());
+                }
+            }
+        }
+        worlds.clear();
+        ticketCount = 0;
+    }
+
+    /**
+     * Release the least recently used held chunk in the given world's destinations.
+     * Returns false if none of them are held.
+     */
+    private boolean releaseLeastRecent(@NotNull World world, @NotNull LinkedHashMap<Long, Usage> chunks) {
+
+        for (Map.Entry<Long, Usage> entry : chunks.entrySet()) {
+            if (entry.getValue().ticketed) {
+                entry.getValue().ticketed = false;
+                removeTicket(world.getUID(), entry.getKey());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Release the least recently used held chunk across every world.
+     * Returns false if no chunks are held.
+     */
+    private boolean releaseLeastRecentOverall() {
+
+        UUID oldestWorld = null;
+        Map.Entry<Long, Usage> oldest = null;
+
+        for (Map.Entry<UUID, LinkedHashMap<Long, Usage>> worldEntry : worlds.entrySet()) {
+            for (Map.Entry<Long, Usage> entry : worldEntry.getValue().entrySet()) {
+                if (entry.getValue().ticketed) {
+                    if (oldest == null || entry.getValue().lastUsedTick < oldest.getValue().lastUsedTick) {
+                        oldestWorld = worldEntry.getKey();
+                        oldest = entry;
+                    }
+                    // each world's destinations are in access order, so its first held one is its oldest...
+                    break;
+                }
+            }
+        }
+        if (oldest == null) {
+            return false;
+        }
+        oldest.getValue().ticketed = false;
+        removeTicket(oldestWorld, oldest.getKey());
+        return true;
+    }
+
+    private void removeTicket(@NotNull UUID worldId, long chunkKey) {
+        tickets.release(worldId, chunkKey);
+        ticketCount--;
+    }
+
+    private static int countTickets(@NotNull Map<Long, Usage> chunks) {
+
+        int count = 0;
+        for (Usage usage : chunks.values()) {
+            if (usage.ticketed) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,247 @@
+package me.cynadyde.teleportals;
+
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.PlayerInventory;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Loads the destination chunks of teleportals ahead of time when players come near them,
+ * so that teleporting does not have to load the destination in the middle of a tick.
+ * Chunks are loaded asynchronously where the server supports it, else a few at a time on the main thread.
+ * Each loaded destination is then held with a plugin chunk ticket for a while, so that it is not
+ * unloaded and loaded again while players stay near its teleportal.
+ */
+public class ChunkPreloader {
+
+    /**
+     * A destination chunk held loaded until a tick.
+     */
+    private static final class Hold {
+
+        private final BlockKey key;
+        private final long expiryTick;
+
+        private Hold(@NotNull BlockKey key, long expiryTick) {
+            this.key = key;
+            this.expiryTick = expiryTick;
+        }
+    }
+
+    private final ChunkTickets tickets;
+    private final TeleportalRegistry registry;
+    private final PlatformAdapter platform;
+    private final Map<UUID, LongSet> requested = new HashMap<>();
+    private final ArrayDeque<BlockKey> syncQueue = new ArrayDeque<>();
+    private final ArrayDeque<Hold> holds = new ArrayDeque<>();
+    private final Location playerLocation = new Location(null, 0, 0, 0);
+    private long currentTick;
+
+    /**
+     * Create a preloader for the teleportals in the given registry, which holds chunks through the given tickets.
+     */
+    public ChunkPreloader(@NotNull ChunkTickets tickets, @NotNull TeleportalRegistry registry, @NotNull PlatformAdapter platform) {
+        this.tickets = tickets;
+        this.registry = registry;
+        this.platform = platform;
+    }
+
+    /**
+     * Release the destination chunks whose hold has expired, look for players near teleportals
+     * if the given settings' interval has passed, then load queued destination chunks
+     * up to the given settings' per-tick budget.
+     */
+    public void tick(long currentTick, @NotNull Settings settings, @NotNull Collection<? extends Player> players) {
+
+        this.currentTick = currentTick;
+
+        // holds are queued in the order they were taken, so the expired ones are at the front...
+        while (!holds.isEmpty() && (holds.peek().expiryTick <= currentTick || !settings.isPreloadEnabled())) {
+            release(holds.poll());
+        }
+        if (!settings.isPreloadEnabled()) {
+            return;
+        }
+        long expiryTick = currentTick + settings.getPreloadHoldTicks();
+        if (currentTick % settings.getPreloadIntervalTicks() == 0) {
+            for (Player player : players) {
+                scan(player, isHoldingPearl(player) ? settings.getPreloadPearlRadius() : settings.getPreloadRadius(), expiryTick);
+            }
+        }
+        for (int i = 0; i < settings.getPreloadSyncLoadsPerTick() && !syncQueue.isEmpty(); i++) {
+            BlockKey key = syncQueue.poll();
+            World world = key.getWorld();
+            if (world != null) {
+                world.loadChunk(key.getX() >> 4, key.getZ() >> 4, false);
+                hold(world, key, expiryTick);
+            }
+            else {
+                forget(key);
+            }
+        }
+    }
+
+    /**
+     * Get the number of destination chunks currently held.
+     */
+    public int getTicketCount() {
+        return holds.size();
+    }
+
+    /**
+     * Forget any destination chunks requested in the given world.
+     */
+    public void unloadWorld(@NotNull World world) {
+
+        requested.remove(world.getUID());
+        syncQueue.removeIf(key -> key.getWorldId().equals(world.getUID()));
+
+        // the world's tickets are discarded with it...
+        holds.removeIf(hold -> hold.key.getWorldId().equals(world.getUID()));
+    }
+
+    /**
+     * Stop holding every destination chunk and forget every requested one.
+     */
+    public void clear() {
+
+        while (!holds.isEmpty()) {
+            release(holds.poll());
+        }
+        requested.clear();
+        syncQueue.clear();
+    }
+
+    /**
+     * Request the destination chunks of every teleportal within the given radius of the player.
+     */
+    private void scan(@NotNull Player player, int radius, long expiryTick) {
+
+        Location loc = player.getLocation(playerLocation);
+        World world = player.getWorld();
+
+        int minChunkX = (loc.getBlockX() - radius) >> 4;
+        int minChunkZ = (loc.getBlockZ() - radius) >> 4;
+        int maxChunkX = (loc.getBlockX() + radius) >> 4;
+        int maxChunkZ = (loc.getBlockZ() + radius) >> 4;
+        if (!registry.hasAnyBetween(world, minChunkX, minChunkZ, maxChunkX, maxChunkZ)) {
+            return;
+        }
+        double radiusSquared = (double) radius * radius;
+
+        for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+            for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                for (Teleportal teleportal : registry.getAll(world, chunkX, chunkZ)) {
+
+                    Block anchor = teleportal.getAnchor();
+                    double dx = anchor.getX() + 0.5 - loc.getX();
+                    double dy = anchor.getY() + 0.5 - loc.getY();
+                    double dz = anchor.getZ() + 0.5 - loc.getZ();
+                    if (dx * dx + dy * dy + dz * dz <= radiusSquared) {
+
+                        BlockKey link = teleportal.getLink();
+                        if (link != null) {
+                            request(link, expiryTick);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Start loading the chunk containing the given block, holding it until the given tick once it is loaded,
+     * unless it is already requested or held. A chunk that is already loaded is held right away.
+     */
+    private void request(@NotNull BlockKey key, long expiryTick) {
+
+        World world = key.getWorld();
+        if (world == null) {
+            return;
+        }
+        if (!requested.computeIfAbsent(key.getWorldId(), k -> new LongSet()).add(key.getChunkKey())) {
+            return;
+        }
+        if (world.isChunkLoaded(key.getX() >> 4, key.getZ() >> 4)) {
+            hold(world, key, expiryTick);
+            return;
+        }
+        CompletableFuture<Chunk> future = platform.getChunkAtAsync(world, key.getX() >> 4, key.getZ() >> 4);
+        if (future != null) {
+            // the load may take a while, so the hold is counted from when it completes...
+            long holdTicks = expiryTick - currentTick;
+            future.whenComplete((chunk, ex) -> {
+                if (chunk != null && isRequested(key)) {
+                    hold(chunk.getWorld(), key, currentTick + holdTicks);
+                }
+                else {
+                    forget(key);
+                }
+            });
+        }
+        else {
+            syncQueue.add(key);
+        }
+    }
+
+    /**
+     * Hold the loaded chunk containing the given block until the given tick, keeping it requested until then.
+     */
+    private void hold(@NotNull World world, @NotNull BlockKey key, long expiryTick) {
+        tickets.acquire(world, key.getChunkKey());
+        holds.add(new Hold(key, expiryTick));
+    }
+
+    /**
+     * Stop holding the given destination chunk and forget that it was requested.
+     */
+    private void release(@NotNull Hold hold) {
+
+        tickets.release(hold.key.getWorldId(), hold.key.getChunkKey());
+        forget(hold.key);
+    }
+
+    /**
+     * Check if the chunk containing the given block is still requested, as it is forgotten when its world unloads.
+     */
+    private boolean isRequested(@NotNull BlockKey key) {
+
+        LongSet chunks = requested.get(key.getWorldId());
+        return chunks != null && chunks.contains(key.getChunkKey());
+    }
+
+    /**
+     * Forget that the chunk containing the given block was requested.
+     */
+    private void forget(@NotNull BlockKey key) {
+
+        LongSet chunks = requested.get(key.getWorldId());
+        if (chunks != null) {
+            chunks.remove(key.getChunkKey());
+            if (chunks.isEmpty()) {
+                requested.remove(key.getWorldId());
+            }
+        }
+    }
+
+    /**
+     * Check if the player is holding an ender pearl in either hand.
+     */
+    private static boolean isHoldingPearl(@NotNull Player player) {
+
+        PlayerInventory inventory = player.getInventory();
+        return inventory.getItemInMainHand().getType() == Material.ENDER_PEARL
+                || inventory.getItemInOffHand().getType() == Material.ENDER_PEARL;
+    }
+}
@@ -0,0 +1,112 @@
+package me.cynadyde.teleportals;
+
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Reads the teleportals stored in chunks after they load, a few at a time under a per-tick time budget,
+ * so that the store and registry warm up without slowing down chunk loading.
+ * Chunks that unload before their turn are skipped.
+ */
+public class ChunkScanner {
+
+    private final TeleportalRegistry registry;
+    private final TeleportalStore store;
+    private final ArrayDeque<Chunk> queue = new ArrayDeque<>();
+    private final Map<UUID, LongSet> queued = new HashMap<>();
+
+    /**
+     * Create a scanner that fills the given registry from the given store.
+     */
+    public ChunkScanner(@NotNull TeleportalRegistry registry, @NotNull TeleportalStore store) {
+        this.registry = registry;
+        this.store = store;
+    }
+
+    /**
+     * Queue the given chunk to be scanned, if it is not already queued.
+     */
+    public void queue(@NotNull Chunk chunk) {
+
+        if (queued.computeIfAbsent(chunk.getWorld().getUID(), k -> new LongSet()).add(Utils.packChunk(chunk.getX(), chunk.getZ()))) {
+            queue.add(chunk);
+        }
+    }
+
+    /**
+     * Scan queued chunks until the given settings' time budget for this tick is spent.
+     * At least one chunk is scanned each tick while any are queued.
+     */
+    public void tick(@NotNull Settings settings) {
+
+        long deadline = System.nanoTime() + settings.getChunkScanBudgetNanos();
+        while (!queue.isEmpty()) {
+
+            Chunk chunk = queue.poll();
+            if (!dequeue(chunk.getWorld(), chunk.getX(), chunk.getZ()) || !chunk.isLoaded()) {
+                continue;
+            }
+            store.loadChunk(chunk);
+            registry.registerIntact(store.getAll(chunk));
+
+            if (System.nanoTime() >= deadline) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Stop waiting to scan the given chunk, as it is unloading.
+     */
+    public void unloadChunk(@NotNull Chunk chunk) {
+        dequeue(chunk.getWorld(), chunk.getX(), chunk.getZ());
+    }
+
+    /**
+     * Stop waiting to scan any chunk in the given world, as it is unloading.
+     */
+    public void unloadWorld(@NotNull World world) {
+        queued.remove(world.getUID());
+    }
+
+    /**
+     * Get the number of chunks waiting to be scanned.
+     */
+    public int size() {
+
+        int size = 0;
+        for (LongSet chunks : queued.values()) {
+            size += chunks.size();
+        }
+        return size;
+    }
+
+    /**
+     * Forget every queued chunk.
+     */
+    public void clear() {
+        queue.clear();
+        queued.clear();
+    }
+
+    /**
+     * Mark the given chunk as no longer queued, returning false if it was not queued.
+     */
+    private boolean dequeue(@NotNull World world, int chunkX, int chunkZ) {
+
+        LongSet chunks = queued.get(world.getUID());
+        if (chunks == null || !chunks.remove(Utils.packChunk(chunkX, chunkZ))) {
+            return false;
+        }
+        if (chunks.isEmpty()) {
+            queued.remove(world.getUID());
+        }
+        return true;
+    }
+}
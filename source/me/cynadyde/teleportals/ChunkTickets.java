@@ -0,0 +1,102 @@
+package me.cynadyde.teleportals;
+
+import org.bukkit.World;
+import org.bukkit.plugin.Plugin;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Shares the plugin's chunk tickets between the parts of the plugin that hold chunks loaded.
+ * The server keeps a single ticket per plugin per chunk, so the holders of each chunk are counted here,
+ * and its ticket is only removed once the last of them lets go.
+ */
+public class ChunkTickets {
+
+    private final Plugin plugin;
+    private final Map<UUID, Map<Long, Integer>> worlds = new HashMap<>();
+
+    /**
+     * Create a ticket owner that adds chunk tickets for the given plugin.
+     */
+    public ChunkTickets(@NotNull Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Hold the chunk with the given key in the given world, adding the plugin's ticket to it if it is its first holder.
+     */
+    public void acquire(@NotNull World world, long chunkKey) {
+
+        Map<Long, Integer> chunks = worlds.computeIfAbsent(world.getUID(), k -> new HashMap<>());
+        Integer holders = chunks.get(chunkKey);
+        if (holders == null) {
+            world.addPluginChunkTicket(Utils.unpackChunkX(chunkKey), Utils.unpackChunkZ(chunkKey), plugin);
+            holders = 0;
+        }
+        chunks.put(chunkKey, holders + 1);
+    }
+
+    /**
+     * Let go of the chunk with the given key in the world with the given UUID,
+     * removing the plugin's ticket from it if it was its last holder.
+     */
+    public void release(@NotNull UUID worldId, long chunkKey) {
+
+        Map<Long, Integer> chunks = worlds.get(worldId);
+        Integer holders = (chunks == null) ? null : chunks.get(chunkKey);
+        if (holders == null) {
+            return;
+        }
+        if (holders > 1) {
+            chunks.put(chunkKey, holders - 1);
+            return;
+        }
+        chunks.remove(chunkKey);
+        if (chunks.isEmpty()) {
+            worlds.remove(worldId);
+        }
+        World world = plugin.getServer().getWorld(worldId);
+        if (world != null) {
+            world.removePluginChunkTicket(Utils.unpackChunkX(chunkKey), Utils.unpackChunkZ(chunkKey), plugin);
+        }
+    }
+
+    /**
+     * Get the number of chunks the plugin holds a ticket on.
+     */
+    public int size() {
+
+        int size = 0;
+        for (Map<Long, Integer> chunks : worlds.values()) {
+            size += chunks.size();
+        }
+        return size;
+    }
+
+    /**
+     * Forget the chunks held in the given world, whose tickets are discarded with it.
+     */
+    public void unloadWorld(@NotNull World world) {
+        worlds.remove(world.getUID());
+    }
+
+    /**
+     * Remove every ticket still held and forget every holder.
+     */
+    public void clear() {
+
+        for (Map.Entry<UUID, Map<Long, Integer>> worldEntry : worlds.entrySet()) {
+            World world = plugin.getServer().getWorld(worldEntry.getKey());
+            if (world == null) {
+                continue;
+            }
+            for (long chunkKey : worldEntry.getValue().keySet()) {
+                world.removePluginChunkTicket(Utils.unpackChunkX(chunkKey), Utils.unpackChunkZ(chunkKey), plugin);
+            }
+        }
+        worlds.clear();
+    }
+}
@@ -0,0 +1,125 @@
+package me.cynadyde.teleportals;
+
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Collects the anchors of registered teleportals whose structures may have been damaged during a tick,
+ * such as by explosions, pistons or flowing fluids, so each one is checked only once when the tick is flushed.
+ * Blocks that are not part of a registered teleportal are dropped as they are added.
+ */
+public class DamageTracker {
+
+    /**
+     * The vertical offsets from a damaged block to the anchors of the teleportals it could be part of.
+     */
+    private static final int[] ANCHOR_OFFSETS = {0, -1, 1};
+
+    private final TeleportalsPlugin plugin;
+    private Map<UUID, World> worlds = new HashMap<>();
+    private Map<UUID, LongSet> anchors = new HashMap<>();
+
+    /**
+     * Create a tracker that deactivates damaged teleportals through the given plugin.
+     */
+    public DamageTracker(@NotNull TeleportalsPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Note that the given block may have been damaged.
+     */
+    public void add(@NotNull Block block) {
+        add(block.getWorld(), block.getX(), block.getY(), block.getZ());
+    }
+
+    /**
+     * Note that every one of the given blocks may have been damaged.
+     */
+    public void addAll(@NotNull Iterable<Block> blocks) {
+        for (Block block : blocks) {
+            add(block.getWorld(), block.getX(), block.getY(), block.getZ());
+        }
+    }
+
+    /**
+     * Note that the block at the given coordinates may have been damaged.
+     */
+    public void add(@NotNull World world, int x, int y, int z) {
+
+        TeleportalRegistry registry = plugin.getRegistry();
+        for (int dy : ANCHOR_OFFSETS) {
+            if (registry.isAnchor(world, x, y + dy, z)) {
+                worlds.putIfAbsent(world.getUID(), world);
+                anchors.computeIfAbsent(world.getUID(), k -> new LongSet()).add(Utils.packBlock(x, y + dy, z));
+            }
+        }
+    }
+
+    /**
+     * Get the number of anchors waiting to be checked.
+     */
+    public int size() {
+
+        int size = 0;
+        for (LongSet worldAnchors : anchors.values()) {
+            size += worldAnchors.size();
+        }
+        return size;
+    }
+
+    /**
+     * Forget every noted teleportal, deactivating those whose structure is no longer intact.
+     * Anchors noted while deactivating, such as by the block changes it causes, are kept for the next flush.
+     * Returns the number of teleportals deactivated.
+     */
+    public int flush() {
+
+        if (anchors.isEmpty()) {
+            return 0;
+        }
+        Map<UUID, World> flushedWorlds = worlds;
+        Map<UUID, LongSet> flushedAnchors = anchors;
+        worlds = new HashMap<>();
+        anchors = new HashMap<>();
+
+        int deactivated = 0;
+        for (Map.Entry<UUID, LongSet> entry : flushedAnchors.entrySet()) {
+
+            World world = flushedWorlds.get(entry.getKey());
+            for (long packed : entry.getValue().toArray()) {
+
+                Teleportal teleportal = plugin.getRegistry().get(world,
+                        Utils.unpackBlockX(packed), Utils.unpackBlockY(packed), Utils.unpackBlockZ(packed));
+
+                if (teleportal != null && (teleportal.getAnchor().getType() != Material.END_GATEWAY || !teleportal.isStructOk())) {
+                    plugin.deactivateTeleportal(teleportal);
+                    deactivated++;
+                }
+            }
+        }
+        return deactivated;
+    }
+
+    /**
+     * Forget the anchors noted in the given world, as it is unloading.
+     */
+    public void unloadWorld(@NotNull World world) {
+        worlds.remove(world.getUID());
+        anchors.remove(world.getUID());
+    }
+
+    /**
+     * Forget every noted anchor.
+     */
+    public void clear() {
+        worlds.clear();
+        anchors.clear();
+    }
+}
@@ -0,0 +1,183 @@
+package me.cynadyde.teleportals;
+
+import org.bukkit.Location;
+import org.bukkit.Particle;
+import org.bukkit.Sound;
+import org.bukkit.SoundCategory;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Collects the particle and sound effects requested during a tick and plays them together on the next tick.
+ * The same effect requested more than once at the same block in a tick is only played once,
+ * particles are thinned out for distant players and skipped for players out of range,
+ * and the number of particles sent each tick is capped.
+ */
+public class EffectsScheduler {
+
+    /**
+     * Identifies an effect at a block, so that duplicate requests can be merged.
+     */
+    private static final class EffectKey {
+
+        private final UUID worldId;
+        private final long block;
+        private final Enum<?> type;
+
+        private EffectKey(@NotNull Location loc, @NotNull Enum<?> type) {
+            this.worldId = Objects.requireNonNull(loc.getWorld()).getUID();
+            this.block = Utils.packBlock(loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof EffectKey)) {
+                return false;
+            }
+            EffectKey other = (EffectKey) obj;
+            return block == other.block && type == other.type && worldId.equals(other.worldId);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * worldId.hashCode() + Long.hashCode(block)) + type.hashCode();
+        }
+    }
+
+    /**
+     * A requested burst of particles.
+     */
+    private static final class ParticleEffect {
+
+        private final Location loc;
+        private final Particle particle;
+        private final int count;
+        private final double offsetX;
+        private final double offsetY;
+        private final double offsetZ;
+        private final double extra;
+
+        private ParticleEffect(Location loc, Particle particle, int count, double offsetX, double offsetY, double offsetZ, double extra) {
+            this.loc = loc;
+            this.particle = particle;
+            this.count = count;
+            this.offsetX = offsetX;
+            this.offsetY = offsetY;
+            this.offsetZ = offsetZ;
+            this.extra = extra;
+        }
+    }
+
+    /**
+     * A requested sound.
+     */
+    private static final class SoundEffect {
+
+        private final Location loc;
+        private final Sound sound;
+        private final SoundCategory category;
+        private final float volume;
+        private final float pitch;
+
+        private SoundEffect(Location loc, Sound sound, SoundCategory category, float volume, float pitch) {
+            this.loc = loc;
+            this.sound = sound;
+            this.category = category;
+            this.volume = volume;
+            this.pitch = pitch;
+        }
+    }
+
+    private final Map<EffectKey, ParticleEffect> particles = new LinkedHashMap<>();
+    private final Map<EffectKey, SoundEffect> sounds = new LinkedHashMap<>();
+
+    /**
+     * Request a burst of particles at the given location, to be played on the next tick.
+     */
+    public void particle(@NotNull Location loc, @NotNull Particle particle, int count,
+                         double offsetX, double offsetY, double offsetZ, double extra) {
+
+        particles.putIfAbsent(new EffectKey(loc, particle),
+                new ParticleEffect(loc.clone(), particle, count, offsetX, offsetY, offsetZ, extra));
+    }
+
+    /**
+     * Request a sound at the given location, to be played on the next tick.
+     */
+    public void sound(@NotNull Location loc, @NotNull Sound sound, @NotNull SoundCategory category, float volume, float pitch) {
+        sounds.putIfAbsent(new EffectKey(loc, sound), new SoundEffect(loc.clone(), sound, category, volume, pitch));
+    }
+
+    /**
+     * Play every effect requested this tick using the given settings' view distance and particle budget.
+     */
+    public void flush(@NotNull Settings settings) {
+
+        if (!sounds.isEmpty()) {
+            for (SoundEffect effect : sounds.values()) {
+
+                // sounds are heard out to 16 blocks per unit of volume...
+                double range = 16.0 * Math.max(1.0f, effect.volume);
+                World world = Objects.requireNonNull(effect.loc.getWorld());
+                if (anyPlayerWithin(world.getPlayers(), effect.loc, range * range)) {
+                    world.playSound(effect.loc, effect.sound, effect.category, effect.volume, effect.pitch);
+                }
+            }
+            sounds.clear();
+        }
+        if (!particles.isEmpty()) {
+            double viewDistance = settings.getEffectsViewDistance();
+            int budget = settings.getEffectsParticleBudget();
+
+            sending:
+            for (ParticleEffect effect : particles.values()) {
+                for (Player player : Objects.requireNonNull(effect.loc.getWorld()).getPlayers()) {
+
+                    if (budget <= 0) {
+                        break sending;
+                    }
+                    double distance = player.getLocation().distance(effect.loc);
+                    if (distance > viewDistance) {
+                        continue;
+                    }
+                    int count = (int) Math.max(1, Math.round(effect.count * (1.0 - (distance / viewDistance))));
+                    count = Math.min(count, budget);
+                    player.spawnParticle(effect.particle, effect.loc, count, effect.offsetX, effect.offsetY, effect.offsetZ, effect.extra);
+
+                    budget -= count;
+                }
+            }
+            particles.clear();
+        }
+    }
+
+    /**
+     * Forget every effect requested this tick without playing them.
+     */
+    public void clear() {
+        particles.clear();
+        sounds.clear();
+    }
+
+    private static boolean anyPlayerWithin(@NotNull List<Player> players, @NotNull Location loc, double rangeSquared) {
+
+        for (Player player : players) {
+            if (player.getLocation().distanceSquared(loc) <= rangeSquared) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
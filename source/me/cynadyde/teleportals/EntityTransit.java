@@ -0,0 +1,230 @@
+package me.cynadyde.teleportals;
+
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.entity.EnderPearl;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.util.BoundingBox;
+import org.bukkit.util.Vector;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+
+/**
+ * Sends non-player entities, such as dropped items, mobs and minecarts, through the teleportals they move into.
+ * Rather than watching every entity move, only the end gateways of the registered teleportals are checked
+ * for entities inside them, once every few ticks. Entities headed for the same teleportal are sent together,
+ * after its chunk has loaded, so that one chunk load serves all of them.
+ * An entity that has just arrived through a teleportal is not sent again until its cooldown has passed,
+ * so that it does not bounce between linked teleportals.
+ */
+public class EntityTransit {
+
+    private final TeleportalsPlugin plugin;
+    private final Set<UUID> waiting = new HashSet<>();
+    private final Map<UUID, Long> cooldownEnds = new HashMap<>();
+    private final Location entityLocation = new Location(null, 0, 0, 0);
+    private final BoundingBox gatewayBox = new BoundingBox();
+    private int totalTransits;
+    private long currentTick;
+
+    /**
+     * Create a transit that teleports entities through the given plugin's teleportals.
+     */
+    public EntityTransit(@NotNull TeleportalsPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Look for entities inside the end gateways of registered teleportals if the given settings' interval has passed,
+     * and send them through.
+     */
+    public void tick(long currentTick, @NotNull Settings settings) {
+
+        this.currentTick = currentTick;
+        if (!settings.isTransitEnabled() || currentTick % settings.getTransitIntervalTicks() != 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        String markerKey = TeleportalsPlugin.getKey("teleportal").toString();
+        Predicate<Entity> filter = entity -> entity.isValid()
+                && !(entity instanceof Player)
+                && !(entity instanceof EnderPearl)
+                && !entity.isInsideVehicle()
+                && entity.getPassengers().isEmpty()
+                && !waiting.contains(entity.getUniqueId())
+                && !isCoolingDown(entity.getUniqueId())
+                && !Utils.isMarker(entity, markerKey);
+        Map<BlockKey, List<Transit>> batches = new HashMap<>();
+
+        for (World world : plugin.getServer().getWorlds()) {
+            for (Map.Entry<Long, Map<Long, Teleportal>> chunk : plugin.getRegistry().getChunks(world).entrySet()) {
+
+                // entities in unloaded chunks are not ticking, so they cannot have moved into a gateway...
+                long chunkKey = chunk.getKey();
+                if (!world.isChunkLoaded(Utils.unpackChunkX(chunkKey), Utils.unpackChunkZ(chunkKey))) {
+                    continue;
+                }
+                for (Teleportal teleportal : chunk.getValue().values()) {
+
+                    BlockKey link = teleportal.getLink();
+                    if (link == null) {
+                        continue;
+                    }
+                    Block anchor = teleportal.getAnchor();
+                    gatewayBox.resize(anchor.getX(), anchor.getY(), anchor.getZ(),
+                            anchor.getX() + 1, anchor.getY() + 1, anchor.getZ() + 1);
+
+                    for (Entity entity : world.getNearbyEntities(gatewayBox, filter)) {
+                        batches.computeIfAbsent(link, k -> new ArrayList<>())
+                                .add(new Transit(teleportal, entity, getEnterFace(entity, anchor)));
+                    }
+                }
+            }
+        }
+        for (Map.Entry<BlockKey, List<Transit>> batch : batches.entrySet()) {
+            send(batch.getKey(), batch.getValue(), settings);
+        }
+        plugin.getMetrics().record(Metrics.Timing.ENTITY_TRANSIT, start);
+    }
+
+    /**
+     * Get the number of entities sent through teleportals since the plugin was enabled.
+     */
+    public int getTotalTransits() {
+        return totalTransits;
+    }
+
+    /**
+     * Forget the cooldowns of every entity whose cooldown has passed.
+     */
+    public void expire(long currentTick) {
+        cooldownEnds.values().removeIf(end -> end <= currentTick);
+    }
+
+    /**
+     * Forget every entity waiting on its destination to load, and every entity's cooldown.
+     */
+    public void clear() {
+        waiting.clear();
+        cooldownEnds.clear();
+    }
+
+    /**
+     * Check if the entity with the given UUID arrived through a teleportal too recently to be sent again.
+     */
+    private boolean isCoolingDown(@NotNull UUID entityId) {
+
+        Long end = cooldownEnds.get(entityId);
+        return end != null && end > currentTick;
+    }
+
+    /**
+     * Teleport every entity in the given batch once the chunk of the teleportal they are headed for is loaded.
+     */
+    private void send(@NotNull BlockKey destination, @NotNull List<Transit> batch, @NotNull Settings settings) {
+
+        World world = destination.getWorld();
+        if (world == null) {
+            return;
+        }
+        int chunkX = destination.getX() >> 4;
+        int chunkZ = destination.getZ() >> 4;
+        if (world.isChunkLoaded(chunkX, chunkZ)) {
+            teleportAll(batch, settings);
+            return;
+        }
+        // without asynchronous loading, the first teleport loads the chunk and the rest find it loaded...
+        CompletableFuture<Chunk> future = plugin.getPlatform().getChunkAtAsync(world, chunkX, chunkZ);
+        if (future == null) {
+            teleportAll(batch, settings);
+            return;
+        }
+        for (Transit transit : batch) {
+            waiting.add(transit.entity.getUniqueId());
+        }
+        future.whenComplete((chunk, ex) -> {
+            for (Transit transit : batch) {
+                waiting.remove(transit.entity.getUniqueId());
+            }
+            if (chunk != null) {
+                teleportAll(batch, plugin.getSettings());
+            }
+        });
+    }
+
+    /**
+     * Teleport every entity in the given batch that is still in its teleportal's end gateway.
+     */
+    private void teleportAll(@NotNull List<Transit> batch, @NotNull Settings settings) {
+
+        for (Transit transit : batch) {
+
+            Block anchor = transit.teleportal.getAnchor();
+            if (!transit.entity.isValid() || anchor.getType() != Material.END_GATEWAY
+                    || !transit.entity.getBoundingBox().overlaps(BoundingBox.of(anchor))) {
+                continue;
+            }
+            int cooldownTicks = settings.getTransitCooldownTicks();
+            transit.teleportal.teleport(transit.entity, transit.enterFace,
+                    settings.isTryNonOccludedExit(), settings.isFailOnFullyOccludedExit()).thenAccept(success -> {
+                if (success) {
+                    totalTransits++;
+                    if (cooldownTicks > 0) {
+                        cooldownEnds.put(transit.entity.getUniqueId(), currentTick + cooldownTicks);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Get the side of the anchor the given entity came in through, judged by which way it is moving,
+     * or by where it is in the end gateway if it is still.
+     */
+    private @NotNull BlockFace getEnterFace(@NotNull Entity entity, @NotNull Block anchor) {
+
+        Vector velocity = entity.getVelocity();
+        double dx = velocity.getX();
+        double dz = velocity.getZ();
+
+        if (dx * dx + dz * dz < 1.0E-4) {
+            Location loc = entity.getLocation(entityLocation);
+            dx = anchor.getX() + 0.5 - loc.getX();
+            dz = anchor.getZ() + 0.5 - loc.getZ();
+        }
+        if (Math.abs(dx) > Math.abs(dz)) {
+            return (dx > 0) ? BlockFace.WEST : BlockFace.EAST;
+        }
+        return (dz > 0) ? BlockFace.NORTH : BlockFace.SOUTH;
+    }
+
+    /**
+     * An entity about to be sent through a teleportal.
+     */
+    private static final class Transit {
+
+        private final Teleportal teleportal;
+        private final Entity entity;
+        private final BlockFace enterFace;
+
+        private Transit(@NotNull Teleportal teleportal, @NotNull Entity entity, @NotNull BlockFace enterFace) {
+            this.teleportal = teleportal;
+            this.entity = entity;
+            this.enterFace = enterFace;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package me.cynadyde.teleportals;
+
+import org.bukkit.ChatColor;
+import org.bukkit.NamespacedKey;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A gateway prism item along with the data it carries, read once from its persistent data container.
+ */
+public final class GatewayPrism {
+
+    private final ItemStack item;
+    private final BlockKey link;
+    private final boolean migrated;
+
+    /**
+     * Read the given item as a gateway prism if it is one, else null.
+     * Gateway prisms that still carry their data in their lore are migrated to persistent data.
+     */
+    public static @Nullable GatewayPrism of(@Nullable ItemStack item) {
+
+        if (item == null || !item.hasItemMeta()) {
+            return null;
+        }
+        ItemMeta itemMeta = item.getItemMeta();
+        if (itemMeta == null) {
+            return null;
+        }
+        NamespacedKey prismKey = TeleportalsPlugin.getKey("gateway_prism");
+        NamespacedKey linkKey = TeleportalsPlugin.getKey("link");
+        PersistentDataContainer data = itemMeta.getPersistentDataContainer();
+
+        boolean migrated = false;
+        if (!data.has(prismKey, PersistentDataType.BYTE)) {
+            if (!migrateLegacyLore(itemMeta, prismKey.toString())) {
+                return null;
+            }
+            migrated = true;
+        }
+        BlockKey link = null;
+        if (data.has(linkKey, BlockKey.TYPE)) {
+            link = data.get(linkKey, BlockKey.TYPE);
+        }
+        else if (data.has(linkKey, PersistentDataType.STRING)) {
+            link = BlockKey.parse(data.get(linkKey, PersistentDataType.STRING));
+            if (link != null) {
+                data.set(linkKey, BlockKey.TYPE, link);
+                migrated = true;
+            }
+        }
+        if (migrated) {
+            item.setItemMeta(itemMeta);
+        }
+        return new GatewayPrism(item, link, migrated);
+    }
+
+    /**
+     * Mark the given item as a gateway prism.
+     */
+    public static void tag(@NotNull ItemStack item) {
+
+        ItemMeta itemMeta = item.getItemMeta();
+        if (itemMeta != null) {
+            itemMeta.getPersistentDataContainer().set(TeleportalsPlugin.getKey("gateway_prism"), PersistentDataType.BYTE, (byte) 1);
+            item.setItemMeta(itemMeta);
+        }
+    }
+
+    /**
+     * Move the gateway prism tag and link data out of the given item meta's lore and into its persistent data.
+     * Returns false, leaving the item meta unchanged, if the lore did not mark it as a gateway prism.
+     */
+    private static boolean migrateLegacyLore(@NotNull ItemMeta itemMeta, @NotNull String tag) {
+
+        List<String> lore = itemMeta.getLore();
+        if (lore == null || lore.isEmpty()) {
+            return false;
+        }
+        boolean tagged = false;
+        String link = null;
+
+        for (Iterator<String> iter = lore.iterator(); iter.hasNext(); ) {
+
+            String line = iter.next();
+            String rawLine = ChatColor.stripColor(line).trim().toLowerCase();
+
+            if (rawLine.equals(tag)) {
+                tagged = true;
+                iter.remove();
+            }
+            else if (rawLine.startsWith("link") && line.contains(": ")) {
+                link = line.substring(line.indexOf(": ") + 2);
+                iter.remove();
+            }
+        }
+        if (!tagged) {
+            return false;
+        }
+        PersistentDataContainer data = itemMeta.getPersistentDataContainer();
+        data.set(TeleportalsPlugin.getKey("gateway_prism"), PersistentDataType.BYTE, (byte) 1);
+        if (link != null && !link.isEmpty()) {
+            data.set(TeleportalsPlugin.getKey("link"), PersistentDataType.STRING, link);
+        }
+        itemMeta.setLore(lore.isEmpty() ? null : lore);
+        return true;
+    }
+
+    private GatewayPrism(@NotNull ItemStack item, @Nullable BlockKey link, boolean migrated) {
+        this.item = item;
+        this.link = link;
+        this.migrated = migrated;
+    }
+
+    /**
+     * Get the item stack of this gateway prism.
+     */
+    public @NotNull ItemStack getItem() {
+        return item;
+    }
+
+    /**
+     * Get the anchor of the teleportal this gateway prism is linked to, else null.
+     */
+    public @Nullable BlockKey getLink() {
+        return link;
+    }
+
+    /**
+     * Check if this gateway prism's data was migrated from an older format when it was read.
+     */
+    public boolean wasMigrated() {
+        return migrated;
+    }
+
+    /**
+     * Link this gateway prism to the teleportal anchored at the given block.
+     */
+    public @NotNull GatewayPrism withLink(@NotNull BlockKey key) {
+
+        ItemMeta itemMeta = item.getItemMeta();
+        if (itemMeta != null) {
+            itemMeta.getPersistentDataContainer().set(TeleportalsPlugin.getKey("link"), BlockKey.TYPE, key);
+            item.setItemMeta(itemMeta);
+        }
+        return new GatewayPrism(item, key, migrated);
+    }
+}
@@ -0,0 +1,128 @@
+package me.cynadyde.teleportals;
+
+import org.bukkit.World;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The limits a player has from the permission groups defined in the config, resolved once for that player.
+ */
+public final class GroupPolicy {
+
+    private final long resolvedAt;
+    private final Integer maxActivePortals;
+    private final Set<String> worldsCanActivate;
+    private final Set<String> worldsCannotActivate;
+
+    /**
+     * A permission group as defined in the config.
+     */
+    public static final class Group {
+
+        private final String permission;
+        private final Integer maxActivePortals;
+        private final Set<String> worldsCanActivate;
+        private final Set<String> worldsCannotActivate;
+
+        /**
+         * Read the group with the given name from the given groups section.
+         */
+        public Group(@NotNull ConfigurationSection ymlGroups, @NotNull String name) {
+
+            permission = "teleportals.group." + name;
+            String key = name + ".max-active-portals";
+            maxActivePortals = ymlGroups.contains(key) ? ymlGroups.getInt(key) : null;
+            worldsCanActivate = Collections.unmodifiableSet(new HashSet<>(ymlGroups.getStringList(name + ".worlds-can-activate")));
+            worldsCannotActivate = Collections.unmodifiableSet(new HashSet<>(ymlGroups.getStringList(name + ".worlds-cannot-activate")));
+        }
+    }
+
+    /**
+     * Read every group defined in the given groups section, in order.
+     */
+    public static @NotNull List<Group> readGroups(@Nullable ConfigurationSection ymlGroups) {
+
+        List<Group> groups = new ArrayList<>();
+        if (ymlGroups != null) {
+            for (String name : ymlGroups.getKeys(false)) {
+                groups.add(new Group(ymlGroups, name));
+            }
+        }
+        return Collections.unmodifiableList(groups);
+    }
+
+    /**
+     * Resolve the given player's policy from the given groups.
+     * The player's active portal limit comes from the first group they are in, and
+     * their world restrictions from the first group they are in that has any.
+     */
+    public static @NotNull GroupPolicy resolve(@NotNull Player player, @NotNull List<Group> groups) {
+
+        boolean inAnyGroup = false;
+        Integer maxActivePortals = null;
+        Set<String> worldsCanActivate = null;
+        Set<String> worldsCannotActivate = null;
+
+        for (Group group : groups) {
+
+            if (player.hasPermission(group.permission)) {
+                if (!inAnyGroup) {
+                    inAnyGroup = true;
+                    maxActivePortals = group.maxActivePortals;
+                }
+                if (!group.worldsCanActivate.isEmpty()) {
+                    worldsCanActivate = group.worldsCanActivate;
+                    break;
+                }
+                if (!group.worldsCannotActivate.isEmpty()) {
+                    worldsCannotActivate = group.worldsCannotActivate;
+                    break;
+                }
+            }
+        }
+        return new GroupPolicy(maxActivePortals, worldsCanActivate, worldsCannotActivate);
+    }
+
+    private GroupPolicy(@Nullable Integer maxActivePortals, @Nullable Set<String> worldsCanActivate, @Nullable Set<String> worldsCannotActivate) {
+        this.resolvedAt = System.nanoTime();
+        this.maxActivePortals = maxActivePortals;
+        this.worldsCanActivate = worldsCanActivate;
+        this.worldsCannotActivate = worldsCannotActivate;
+    }
+
+    /**
+     * Check if this policy was resolved longer ago than the given number of milliseconds.
+     */
+    public boolean isOlderThan(long millis) {
+        return System.nanoTime() - resolvedAt > millis * 1_000_000L;
+    }
+
+    /**
+     * Get the player's active teleportal limit if they have one, else null.
+     */
+    public @Nullable Integer getMaxActivePortals() {
+        return maxActivePortals;
+    }
+
+    /**
+     * Test if the player can activate a teleportal in the given world.
+     */
+    public boolean canActivateIn(@NotNull World world) {
+
+        if (worldsCanActivate != null) {
+            return worldsCanActivate.contains(world.getName());
+        }
+        if (worldsCannotActivate != null) {
+            return !worldsCannotActivate.contains(world.getName());
+        }
+        return true;
+    }
+}
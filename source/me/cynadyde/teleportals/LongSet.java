@@ -0,0 +1,159 @@
+package me.cynadyde.teleportals;
+
+import java.util.Arrays;
+
+/**
+ * A set of primitive longs using open addressing, so that membership tests do not box their keys.
+ */
+public class LongSet {
+
+    private static final long EMPTY = 0L;
+
+    private long[] keys = new long[16];
+    private boolean hasEmptyKey = false;
+    private int size = 0;
+
+    /**
+     * Get the number of longs in the set.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Check if the set is empty.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Check if the set contains the given long.
+     */
+    public boolean contains(long key) {
+
+        if (key == EMPTY) {
+            return hasEmptyKey;
+        }
+        int mask = keys.length - 1;
+        for (int i = mix(key) & mask; keys[i] != EMPTY; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add the given long to the set, returning false if it was already present.
+     */
+    public boolean add(long key) {
+
+        if (key == EMPTY) {
+            if (hasEmptyKey) {
+                return false;
+            }
+            hasEmptyKey = true;
+            size++;
+            return true;
+        }
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        for (; keys[i] != EMPTY; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return false;
+            }
+        }
+        keys[i] = key;
+        size++;
+        if (size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return true;
+    }
+
+    /**
+     * Remove the given long from the set, returning false if it was not present.
+     */
+    public boolean remove(long key) {
+
+        if (key == EMPTY) {
+            if (!hasEmptyKey) {
+                return false;
+            }
+            hasEmptyKey = false;
+            size--;
+            return true;
+        }
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        for (; keys[i] != key; i = (i + 1) & mask) {
+            if (keys[i] == EMPTY) {
+                return false;
+            }
+        }
+        keys[i] = EMPTY;
+        size--;
+
+        // shift back any following keys that would no longer be reachable...
+        for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+            int home = mix(keys[j]) & mask;
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                keys[j] = EMPTY;
+                i = j;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copy the longs in the set into a new array, in no particular order.
+     */
+    public long[] toArray() {
+
+        long[] result = new long[size];
+        int n = 0;
+        if (hasEmptyKey) {
+            result[n++] = EMPTY;
+        }
+        for (long key : keys) {
+            if (key != EMPTY) {
+                result[n++] = key;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Remove every long from the set.
+     */
+    public void clear() {
+
+        Arrays.fill(keys, EMPTY);
+        hasEmptyKey = false;
+        size = 0;
+    }
+
+    private void rehash(int capacity) {
+
+        long[] oldKeys = keys;
+        keys = new long[capacity];
+        int mask = capacity - 1;
+        for (long key : oldKeys) {
+            if (key != EMPTY) {
+                int i = mix(key) & mask;
+                while (keys[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = key;
+            }
+        }
+    }
+
+    private static int mix(long key) {
+
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
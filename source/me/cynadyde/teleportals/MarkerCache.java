@@ -0,0 +1,178 @@
+package me.cynadyde.teleportals;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.entity.ArmorStand;
+import org.bukkit.entity.Entity;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A cache of the armor stand markers with a given key in each loaded chunk,
+ * mapping the packed position of each marker's block to the marker's UUID.
+ * Armor stands left by other plugins are never cached, so they cannot hide a marker in the same block.
+ */
+public class MarkerCache {
+
+    private final Map<UUID, Map<Long, Map<Long, UUID>>> worlds = new HashMap<>();
+    private final Map<UUID, Set<Long>> indexedChunks = new HashMap<>();
+    private final Map<UUID, Block> markerBlocks = new HashMap<>();
+
+    /**
+     * Check if every marker in the given block's chunk is known to the cache.
+     */
+    public boolean isIndexed(@NotNull Block block) {
+
+        Set<Long> chunks = indexedChunks.get(block.getWorld().getUID());
+        return chunks != null && chunks.contains(Utils.packChunk(block.getX() >> 4, block.getZ() >> 4));
+    }
+
+    /**
+     * Get the cached marker at the given block if it is still valid, else null.
+     */
+    public @Nullable ArmorStand get(@NotNull Block block) {
+
+        Map<Long, UUID> markers = getChunkMarkers(block);
+        if (markers == null) {
+            return null;
+        }
+        long blockKey = Utils.packBlock(block.getX(), block.getY(), block.getZ());
+        UUID uuid = markers.get(blockKey);
+        if (uuid == null) {
+            return null;
+        }
+        Entity entity = Bukkit.getEntity(uuid);
+        if (entity instanceof ArmorStand && entity.isValid()) {
+            return (ArmorStand) entity;
+        }
+        markers.remove(blockKey);
+        markerBlocks.remove(uuid);
+        return null;
+    }
+
+    /**
+     * Remember the given marker as belonging to the given block.
+     */
+    public void put(@NotNull Block block, @NotNull ArmorStand marker) {
+
+        worlds.computeIfAbsent(block.getWorld().getUID(), k -> new HashMap<>())
+                .computeIfAbsent(Utils.packChunk(block.getX() >> 4, block.getZ() >> 4), k -> new HashMap<>())
+                .put(Utils.packBlock(block.getX(), block.getY(), block.getZ()), marker.getUniqueId());
+        markerBlocks.put(marker.getUniqueId(), block);
+    }
+
+    /**
+     * Forget the marker belonging to the given block.
+     */
+    public void remove(@NotNull Block block) {
+
+        Map<Long, UUID> markers = getChunkMarkers(block);
+        if (markers != null) {
+            UUID uuid = markers.remove(Utils.packBlock(block.getX(), block.getY(), block.getZ()));
+            if (uuid != null) {
+                markerBlocks.remove(uuid);
+            }
+        }
+    }
+
+    /**
+     * Forget the given marker entity if it is cached.
+     */
+    public void evict(@NotNull Entity entity) {
+
+        Block block = markerBlocks.remove(entity.getUniqueId());
+        if (block != null) {
+            Map<Long, UUID> markers = getChunkMarkers(block);
+            if (markers != null) {
+                markers.remove(Utils.packBlock(block.getX(), block.getY(), block.getZ()), entity.getUniqueId());
+            }
+        }
+    }
+
+    /**
+     * Cache every armor stand marker with the given key in the given chunk and mark the chunk as indexed.
+     */
+    public void loadChunk(@NotNull Chunk chunk, @NotNull String key) {
+
+        for (Entity entity : chunk.getEntities()) {
+
+            if (Utils.isMarker(entity, key)) {
+                ArmorStand armorStand = (ArmorStand) entity;
+
+                if (armorStand.isMarker()) {
+                    put(armorStand.getLocation().getBlock(), armorStand);
+                }
+            }
+        }
+        indexedChunks.computeIfAbsent(chunk.getWorld().getUID(), k -> new HashSet<>())
+                .add(Utils.packChunk(chunk.getX(), chunk.getZ()));
+    }
+
+    /**
+     * Forget every marker cached in the given chunk.
+     */
+    public void unloadChunk(@NotNull Chunk chunk) {
+
+        UUID worldId = chunk.getWorld().getUID();
+        long chunkKey = Utils.packChunk(chunk.getX(), chunk.getZ());
+
+        Set<Long> chunks = indexedChunks.get(worldId);
+        if (chunks != null) {
+            chunks.remove(chunkKey);
+        }
+        Map<Long, Map<Long, UUID>> worldMarkers = worlds.get(worldId);
+        if (worldMarkers != null) {
+            Map<Long, UUID> markers = worldMarkers.remove(chunkKey);
+            if (markers != null) {
+                markerBlocks.keySet().removeAll(markers.values());
+            }
+        }
+    }
+
+    /**
+     * Forget every marker cached in the given world.
+     */
+    public void unloadWorld(@NotNull World world) {
+
+        indexedChunks.remove(world.getUID());
+        Map<Long, Map<Long, UUID>> worldMarkers = worlds.remove(world.getUID());
+        if (worldMarkers != null) {
+            for (Map<Long, UUID> markers : worldMarkers.values()) {
+                markerBlocks.keySet().removeAll(markers.values());
+            }
+        }
+    }
+
+    /**
+     * Get the number of cached markers.
+     */
+    public int size() {
+        return markerBlocks.size();
+    }
+
+    /**
+     * Forget every cached marker.
+     */
+    public void clear() {
+        worlds.clear();
+        indexedChunks.clear();
+        markerBlocks.clear();
+    }
+
+    private @Nullable Map<Long, UUID> getChunkMarkers(@NotNull Block block) {
+
+        Map<Long, Map<Long, UUID>> worldMarkers = worlds.get(block.getWorld().getUID());
+        if (worldMarkers == null) {
+            return null;
+        }
+        return worldMarkers.get(Utils.packChunk(block.getX() >> 4, block.getZ() >> 4));
+    }
+}
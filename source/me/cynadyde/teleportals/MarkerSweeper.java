@@ -0,0 +1,103 @@
+package me.cynadyde.teleportals;
+
+import org.bukkit.Chunk;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+
+/**
+ * Finds and cleans up the stored teleportals that were destroyed without the plugin noticing,
+ * such as by explosions, pistons, world editors or chunk corruption.
+ * Every loaded chunk is visited in turn, a few per tick under a time budget, and a new pass
+ * starts a set number of ticks after the previous one began.
+ */
+public class MarkerSweeper {
+
+    private final TeleportalsPlugin plugin;
+    private final ArrayDeque<Chunk> pending = new ArrayDeque<>();
+    private long nextPassTick;
+    private int passChunks;
+    private int passOrphans;
+    private int totalOrphans;
+
+    /**
+     * Create a sweeper that cleans up teleportals through the given plugin.
+     */
+    public MarkerSweeper(@NotNull TeleportalsPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Sweep chunks until the given settings' time budget for this tick is spent,
+     * starting a new pass over every loaded chunk if one is due.
+     */
+    public void tick(long currentTick, @NotNull Settings settings) {
+
+        if (!settings.isSweeperEnabled()) {
+            pending.clear();
+            return;
+        }
+        if (pending.isEmpty()) {
+            if (currentTick < nextPassTick) {
+                return;
+            }
+            nextPassTick = currentTick + settings.getSweeperIntervalTicks();
+            for (World world : plugin.getServer().getWorlds()) {
+                Collections.addAll(pending, world.getLoadedChunks());
+            }
+            passChunks = 0;
+            passOrphans = 0;
+        }
+        long deadline = System.nanoTime() + settings.getSweeperBudgetNanos();
+        while (!pending.isEmpty()) {
+
+            Chunk chunk = pending.poll();
+            if (chunk.isLoaded()) {
+                sweep(chunk);
+                passChunks++;
+            }
+            if (pending.isEmpty()) {
+                if (passOrphans > 0) {
+                    plugin.getLogger().info(String.format("Swept %d chunks and cleaned up %d orphaned teleportals (%d since enabled).",
+                            passChunks, passOrphans, totalOrphans));
+                }
+                break;
+            }
+            if (System.nanoTime() >= deadline) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Get the number of orphaned teleportals cleaned up since the plugin was enabled.
+     */
+    public int getTotalOrphans() {
+        return totalOrphans;
+    }
+
+    /**
+     * Forget the chunks left in the current pass.
+     */
+    public void clear() {
+        pending.clear();
+    }
+
+    /**
+     * Clean up every teleportal stored in the given chunk that is no longer intact and activated.
+     */
+    private void sweep(@NotNull Chunk chunk) {
+
+        for (Teleportal teleportal : plugin.getStore().getAll(chunk)) {
+
+            if (teleportal.getAnchor().getType() != Material.END_GATEWAY || !teleportal.isStructOk()) {
+                plugin.deactivateTeleportal(teleportal);
+                passOrphans++;
+                totalOrphans++;
+            }
+        }
+    }
+}
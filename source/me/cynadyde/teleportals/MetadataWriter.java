@@ -0,0 +1,137 @@
+package me.cynadyde.teleportals;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+/**
+ * Writes the plugin's metadata file on a background thread.
+ * Data is snapshot on the calling thread, back-to-back saves are coalesced into a single write,
+ * and each write goes through a temporary file that is then atomically moved over the metadata file.
+ */
+public class MetadataWriter {
+
+    /**
+     * A snapshot requesting that the metadata file be deleted instead of written.
+     */
+    private static final Map<String, Object> DELETE = new HashMap<>(0);
+
+    private final File file;
+    private final Logger logger;
+    private final AtomicReference<Map<String, Object>> pending = new AtomicReference<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Teleportals Metadata Writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Create a writer for the given metadata file.
+     */
+    public MetadataWriter(@NotNull File file, @NotNull Logger logger) {
+        this.file = file;
+        this.logger = logger;
+    }
+
+    /**
+     * Snapshot the given data and schedule it to be written.
+     */
+    public void save(@NotNull ConfigurationSection data) {
+
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : data.getValues(true).entrySet()) {
+            if (!(entry.getValue() instanceof ConfigurationSection)) {
+                snapshot.put(entry.getKey(), entry.getValue());
+            }
+        }
+        submit(snapshot);
+    }
+
+    /**
+     * Schedule the metadata file to be deleted.
+     */
+    public void delete() {
+        submit(DELETE);
+    }
+
+    /**
+     * Stop accepting saves and wait up to the given time for any pending write to finish.
+     */
+    public void shutdown(long timeoutMillis) {
+
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                logger.warning("Timed out waiting for the metadata.yml file to be saved.");
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void submit(@NotNull Map<String, Object> snapshot) {
+
+        // a write is only queued if none is pending, otherwise the pending one picks up this snapshot...
+        if (pending.getAndSet(snapshot) == null) {
+            executor.execute(this::write);
+        }
+    }
+
+    private void write() {
+
+        Map<String, Object> snapshot = pending.getAndSet(null);
+        if (snapshot == null) {
+            return;
+        }
+        if (snapshot == DELETE) {
+            try {
+                Files.deleteIfExists(file.toPath());
+            }
+            catch (IOException ex) {
+                logger.warning("Unable to remove the metadata.yml file: " + ex.getMessage());
+            }
+            return;
+        }
+        YamlConfiguration yaml = new YamlConfiguration();
+        for (Map.Entry<String, Object> entry : snapshot.entrySet()) {
+            yaml.set(entry.getKey(), entry.getValue());
+        }
+        Path target = file.toPath();
+        Path temp = target.resolveSibling(file.getName() + ".tmp");
+        try {
+            Files.createDirectories(target.getParent());
+            try (FileOutputStream out = new FileOutputStream(temp.toFile())) {
+                out.write(yaml.saveToString().getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                out.getFD().sync();
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch (IOException ex) {
+            logger.severe("Unable to save to the metadata.yml file: " + ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package me.cynadyde.teleportals;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.IntSupplier;
+import java.util.logging.Logger;
+
+/**
+ * Counts and times the plugin's work, for the stats command, JMX and Prometheus.
+ * Timings are only recorded from the main thread, so they are kept in plain fields;
+ * readers on other threads may see slightly stale values.
+ */
+public class Metrics {
+
+    /**
+     * The upper bounds of the latency histogram buckets, in nanoseconds.
+     */
+    private static final long[] BUCKET_BOUNDS = {
+            1_000L, 2_500L, 5_000L, 10_000L, 25_000L, 50_000L, 100_000L, 250_000L, 500_000L,
+            1_000_000L, 2_500_000L, 5_000_000L, 10_000_000L, 25_000_000L, 50_000_000L, 100_000_000L
+    };
+
+    private static final String JMX_DOMAIN = "me.cynadyde.teleportals";
+
+    /**
+     * The pieces of work that are timed.
+     */
+    public enum Timing {
+        PLAYER_INTERACT("player_interact"),
+        BLOCK_BREAK("block_break"),
+        TRACK_PEARLS("track_pearls"),
+        TELEPORT("teleport"),
+        MARKER_LOOKUP("marker_lookup"),
+        CHECK_DAMAGE("check_damage"),
+        ENTITY_TRANSIT("entity_transit"),
+        SAVE_METADATA("save_metadata");
+
+        private final String name;
+
+        Timing(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Get the name this timing is reported under.
+         */
+        public @NotNull String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * The attributes of a timer exposed through JMX.
+     */
+    public interface TimerMBean {
+
+        long getCount();
+
+        double getMeanMicros();
+
+        double getMaxMicros();
+
+        double getP50Micros();
+
+        double getP99Micros();
+    }
+
+    /**
+     * A count, total, maximum and histogram of the durations of one piece of work.
+     */
+    public static final class Timer implements TimerMBean {
+
+        private final long[] buckets = new long[BUCKET_BOUNDS.length + 1];
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+
+        private Timer() {
+        }
+
+        /**
+         * Record a duration in nanoseconds.
+         */
+        public void record(long nanos) {
+
+            int i = 0;
+            while (i < BUCKET_BOUNDS.length && nanos > BUCKET_BOUNDS[i]) {
+                i++;
+            }
+            buckets[i]++;
+            count++;
+            totalNanos += nanos;
+            if (nanos > maxNanos) {
+                maxNanos = nanos;
+            }
+        }
+
+        /**
+         * Forget every recorded duration.
+         */
+        public void reset() {
+            Arrays.fill(buckets, 0L);
+            count = 0;
+            totalNanos = 0;
+            maxNanos = 0;
+        }
+
+        @Override
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Get the sum of every recorded duration, in nanoseconds.
+         */
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        @Override
+        public double getMeanMicros() {
+            return (count == 0) ? 0.0 : (totalNanos / (double) count) / 1000.0;
+        }
+
+        @Override
+        public double getMaxMicros() {
+            return maxNanos / 1000.0;
+        }
+
+        @Override
+        public double getP50Micros() {
+            return getPercentileNanos(0.50) / 1000.0;
+        }
+
+        @Override
+        public double getP99Micros() {
+            return getPercentileNanos(0.99) / 1000.0;
+        }
+
+        /**
+         * Estimate the given percentile of the recorded durations as the upper bound of the bucket it falls in.
+         */
+        public long getPercentileNanos(double percentile) {
+
+            if (count == 0) {
+                return 0L;
+            }
+            long target = (long) Math.ceil(count * percentile);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+                seen += buckets[i];
+                if (seen >= target) {
+                    return BUCKET_BOUNDS[i];
+                }
+            }
+            return maxNanos;
+        }
+    }
+
+    /**
+     * The attributes of the plugin's gauges exposed through JMX, as last sampled on the main thread.
+     */
+    public interface GaugesMBean {
+
+        Map<String, Integer> getGauges();
+    }
+
+    private final Timer[] timers = new Timer[Timing.values().length];
+    private final Map<String, IntSupplier> gauges = new LinkedHashMap<>();
+    private volatile Map<String, Integer> gaugeSamples = Collections.emptyMap();
+    private final List<ObjectName> registeredBeans = new ArrayList<>();
+
+    /**
+     * Create an empty set of metrics.
+     */
+    public Metrics() {
+        for (int i = 0; i < timers.length; i++) {
+            timers[i] = new Timer();
+        }
+    }
+
+    /**
+     * Get the timer of the given piece of work.
+     */
+    public @NotNull Timer get(@NotNull Timing timing) {
+        return timers[timing.ordinal()];
+    }
+
+    /**
+     * Forget every duration recorded by every timer, as when a measurement starts over.
+     */
+    public void resetTimers() {
+        for (Timer timer : timers) {
+            timer.reset();
+        }
+    }
+
+    /**
+     * Record the time since the given {@link System#nanoTime()} against the given piece of work.
+     */
+    public void record(@NotNull Timing timing, long startNanos) {
+        timers[timing.ordinal()].record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Add a gauge with the given name, read from the given supplier.
+     */
+    public void addGauge(@NotNull String name, @NotNull IntSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    /**
+     * Read every gauge and keep the values for readers on other threads.
+     * This must be called from the main thread.
+     */
+    public void sampleGauges() {
+        gaugeSamples = Collections.unmodifiableMap(readGauges());
+    }
+
+    /**
+     * Read the current value of every gauge. This must be called from the main thread.
+     */
+    public @NotNull Map<String, Integer> readGauges() {
+
+        Map<String, Integer> values = new LinkedHashMap<>();
+        for (Map.Entry<String, IntSupplier> entry : gauges.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().getAsInt());
+        }
+        return values;
+    }
+
+    /**
+     * Expose the timers and gauges as JMX MBeans.
+     */
+    public void registerMBeans(@NotNull Logger logger) {
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (Timing timing : Timing.values()) {
+                ObjectName name = new ObjectName(JMX_DOMAIN + ":type=Timer,name=" + timing.getName());
+                register(server, name, new StandardMBean(get(timing), TimerMBean.class));
+            }
+            ObjectName name = new ObjectName(JMX_DOMAIN + ":type=Gauges");
+            GaugesMBean gaugesBean = () -> gaugeSamples;
+            register(server, name, new StandardMBean(gaugesBean, GaugesMBean.class));
+        }
+        catch (JMException ex) {
+            logger.warning("Unable to register the plugin's JMX metrics: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Remove the MBeans added by {@link #registerMBeans(Logger)}.
+     */
+    public void unregisterMBeans() {
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registeredBeans) {
+            try {
+                server.unregisterMBean(name);
+            }
+            catch (JMException ignored) {
+            }
+        }
+        registeredBeans.clear();
+    }
+
+    /**
+     * Format the timers and gauges in the Prometheus text exposition format.
+     * This must be called from the main thread.
+     */
+    public @NotNull String toPrometheus() {
+
+        StringBuilder out = new StringBuilder();
+
+        out.append("# HELP teleportals_duration_seconds Time spent in the plugin's work.\n");
+        out.append("# TYPE teleportals_duration_seconds histogram\n");
+        for (Timing timing : Timing.values()) {
+            Timer timer = get(timing);
+            long cumulative = 0;
+            for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+                cumulative += timer.buckets[i];
+                out.append(String.format(Locale.ROOT, "teleportals_duration_seconds_bucket{work=\"%s\",le=\"%s\"} %d\n",
+                        timing.getName(), seconds(BUCKET_BOUNDS[i]), cumulative));
+            }
+            out.append(String.format(Locale.ROOT, "teleportals_duration_seconds_bucket{work=\"%s\",le=\"+Inf\"} %d\n",
+                    timing.getName(), timer.count));
+            out.append(String.format(Locale.ROOT, "teleportals_duration_seconds_sum{work=\"%s\"} %s\n",
+                    timing.getName(), seconds(timer.totalNanos)));
+            out.append(String.format(Locale.ROOT, "teleportals_duration_seconds_count{work=\"%s\"} %d\n",
+                    timing.getName(), timer.count));
+        }
+        for (Map.Entry<String, Integer> gauge : readGauges().entrySet()) {
+            out.append("# TYPE teleportals_").append(gauge.getKey()).append(" gauge\n");
+            out.append("teleportals_").append(gauge.getKey()).append(' ').append(gauge.getValue()).append('\n');
+        }
+        return out.toString();
+    }
+
+    private void register(@NotNull MBeanServer server, @NotNull ObjectName name, @NotNull Object bean) throws JMException {
+
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(bean, name);
+        registeredBeans.add(name);
+    }
+
+    private static @NotNull String seconds(long nanos) {
+        return Double.toString(nanos / 1_000_000_000.0);
+    }
+}
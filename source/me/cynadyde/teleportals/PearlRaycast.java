@@ -0,0 +1,164 @@
+package me.cynadyde.teleportals;
+
+import org.bukkit.World;
+import org.bukkit.block.BlockFace;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Finds where a moving box first enters a teleportal's end gateway during a tick.
+ * The result is kept in this object's fields, so that one instance can be reused without allocating.
+ */
+public class PearlRaycast {
+
+    private int hitX;
+    private int hitY;
+    private int hitZ;
+    private BlockFace hitFace;
+    private double hitTime;
+
+    /**
+     * Sweep a box with the given center, velocity and half extent through the world for one tick.
+     * Returns true if it enters a registered teleportal's end gateway, whose position,
+     * entered face and sub-tick hit time are then available from this raycast.
+     */
+    public boolean cast(@NotNull TeleportalRegistry registry, @NotNull World world,
+                        double x, double y, double z, double dx, double dy, double dz, double halfExtent) {
+
+        hitFace = null;
+        hitTime = Double.POSITIVE_INFINITY;
+
+        // every block the swept box overlaps during the tick...
+        int minX = (int) Math.floor(Math.min(x, x + dx) - halfExtent);
+        int minY = (int) Math.floor(Math.min(y, y + dy) - halfExtent);
+        int minZ = (int) Math.floor(Math.min(z, z + dz) - halfExtent);
+        int maxX = (int) Math.floor(Math.max(x, x + dx) + halfExtent);
+        int maxY = (int) Math.floor(Math.max(y, y + dy) + halfExtent);
+        int maxZ = (int) Math.floor(Math.max(z, z + dz) + halfExtent);
+
+        for (int bx = minX; bx <= maxX; bx++) {
+            for (int by = minY; by <= maxY; by++) {
+                for (int bz = minZ; bz <= maxZ; bz++) {
+                    if (registry.isAnchor(world, bx, by, bz)) {
+                        intersect(bx, by, bz, x, y, z, dx, dy, dz, halfExtent);
+                    }
+                }
+            }
+        }
+        return hitFace != null;
+    }
+
+    /**
+     * Get the x coordinate of the end gateway that was hit.
+     */
+    public int getHitX() {
+        return hitX;
+    }
+
+    /**
+     * Get the y coordinate of the end gateway that was hit.
+     */
+    public int getHitY() {
+        return hitY;
+    }
+
+    /**
+     * Get the z coordinate of the end gateway that was hit.
+     */
+    public int getHitZ() {
+        return hitZ;
+    }
+
+    /**
+     * Get the face of the end gateway that was entered, else null if nothing was hit.
+     */
+    public @Nullable BlockFace getHitFace() {
+        return hitFace;
+    }
+
+    /**
+     * Get the fraction of the tick, from 0 to 1, at which the end gateway was entered.
+     */
+    public double getHitTime() {
+        return hitTime;
+    }
+
+    /**
+     * Intersect the box's path with the given block grown by the box's half extent,
+     * keeping the result if it is the earliest hit so far.
+     */
+    private void intersect(int bx, int by, int bz, double x, double y, double z,
+                           double dx, double dy, double dz, double halfExtent) {
+
+        double near = Double.NEGATIVE_INFINITY;
+        double far = Double.POSITIVE_INFINITY;
+        BlockFace face = null;
+
+        // clip the path against each axis's slab, remembering the axis of the latest entry...
+        for (int axis = 0; axis < 3; axis++) {
+            double origin = (axis == 0) ? x : (axis == 1) ? y : z;
+            double delta = (axis == 0) ? dx : (axis == 1) ? dy : dz;
+            int min = (axis == 0) ? bx : (axis == 1) ? by : bz;
+
+            double slabMin = min - halfExtent;
+            double slabMax = min + 1 + halfExtent;
+
+            if (delta == 0) {
+                if (origin < slabMin || origin > slabMax) {
+                    return;
+                }
+                continue;
+            }
+            double t1 = (slabMin - origin) / delta;
+            double t2 = (slabMax - origin) / delta;
+            double entry = Math.min(t1, t2);
+            double exit = Math.max(t1, t2);
+
+            if (entry > near) {
+                near = entry;
+                face = enteredFace(axis, delta);
+            }
+            if (exit < far) {
+                far = exit;
+            }
+        }
+        if (face == null || near > far || far < 0 || near > 1) {
+            return;
+        }
+        double time = Math.max(near, 0);
+        if (time < hitTime) {
+            hitX = bx;
+            hitY = by;
+            hitZ = bz;
+            hitTime = time;
+            hitFace = (face == BlockFace.UP || face == BlockFace.DOWN) ? horizontalFace(dx, dz) : face;
+        }
+    }
+
+    /**
+     * Get the face of a block entered when moving along the given axis in the given direction.
+     */
+    private static @NotNull BlockFace enteredFace(int axis, double delta) {
+
+        switch (axis) {
+            case 0:
+                return (delta > 0) ? BlockFace.WEST : BlockFace.EAST;
+            case 1:
+                return (delta > 0) ? BlockFace.DOWN : BlockFace.UP;
+            default:
+                return (delta > 0) ? BlockFace.NORTH : BlockFace.SOUTH;
+        }
+    }
+
+    /**
+     * Get the side face of a block entered when moving in the given horizontal direction.
+     * Teleportals are capped with obsidian, so a gateway entered from above or below is treated as entered from its side.
+     */
+    private static @NotNull BlockFace horizontalFace(double dx, double dz) {
+
+        if (Math.abs(dx) >= Math.abs(dz)) {
+            return (dx >= 0) ? BlockFace.WEST : BlockFace.EAST;
+        }
+        return (dz > 0) ? BlockFace.NORTH : BlockFace.SOUTH;
+    }
+}
@@ -0,0 +1,196 @@
+package me.cynadyde.teleportals;
+
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.entity.EnderPearl;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * The ender pearls in flight near activated teleportals, kept in dense arrays indexed alongside their entity ids
+ * for iteration, and found by entity id through an open addressing table of their indices.
+ */
+public class PearlTracker {
+
+    private int[] ids = new int[16];
+    private EnderPearl[] pearls = new EnderPearl[16];
+    private int size = 0;
+
+    // each slot holds an entity id and one more than its index in the dense arrays, or zero if the slot is empty...
+    private int[] slotIds = new int[32];
+    private int[] slotIndices = new int[32];
+
+    /**
+     * Get the number of tracked ender pearls.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the tracked ender pearl at the given index.
+     */
+    public @NotNull EnderPearl get(int index) {
+        return pearls[index];
+    }
+
+    /**
+     * Check if the ender pearl with the given entity id is tracked.
+     */
+    public boolean contains(int entityId) {
+        return indexOf(entityId) >= 0;
+    }
+
+    /**
+     * Start tracking the given ender pearl if it is not already tracked.
+     */
+    public void add(@NotNull EnderPearl pearl) {
+
+        int entityId = pearl.getEntityId();
+        if (contains(entityId)) {
+            return;
+        }
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            pearls = Arrays.copyOf(pearls, size * 2);
+        }
+        ids[size] = entityId;
+        pearls[size] = pearl;
+        size++;
+        putSlot(entityId, size - 1);
+        if (size * 2 > slotIds.length) {
+            rehash(slotIds.length * 2);
+        }
+    }
+
+    /**
+     * Stop tracking the ender pearl at the given index.
+     * The last tracked ender pearl is moved into its place, so iterate from the end when removing.
+     */
+    public void removeAt(int index) {
+
+        removeSlot(ids[index]);
+        size--;
+        if (index != size) {
+            ids[index] = ids[size];
+            pearls[index] = pearls[size];
+            slotIndices[findSlot(ids[index])] = index + 1;
+        }
+        pearls[size] = null;
+    }
+
+    /**
+     * Stop tracking the ender pearl with the given entity id.
+     */
+    public void remove(int entityId) {
+
+        int index = indexOf(entityId);
+        if (index >= 0) {
+            removeAt(index);
+        }
+    }
+
+    /**
+     * Stop tracking the ender pearls in the given chunk.
+     */
+    public void unloadChunk(@NotNull Chunk chunk) {
+
+        if (size == 0) {
+            return;
+        }
+        for (Entity entity : chunk.getEntities()) {
+            if (entity.getType() == EntityType.ENDER_PEARL) {
+                remove(entity.getEntityId());
+            }
+        }
+    }
+
+    /**
+     * Stop tracking the ender pearls in the given world.
+     */
+    public void unloadWorld(@NotNull World world) {
+
+        for (int i = size - 1; i >= 0; i--) {
+            if (pearls[i].getWorld().equals(world)) {
+                removeAt(i);
+            }
+        }
+    }
+
+    /**
+     * Stop tracking every ender pearl.
+     */
+    public void clear() {
+
+        Arrays.fill(pearls, 0, size, null);
+        Arrays.fill(slotIndices, 0);
+        size = 0;
+    }
+
+    private int indexOf(int entityId) {
+
+        int slot = findSlot(entityId);
+        return (slot < 0) ? -1 : slotIndices[slot] - 1;
+    }
+
+    private int findSlot(int entityId) {
+
+        int mask = slotIds.length - 1;
+        for (int i = mix(entityId) & mask; slotIndices[i] != 0; i = (i + 1) & mask) {
+            if (slotIds[i] == entityId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void putSlot(int entityId, int index) {
+
+        int mask = slotIds.length - 1;
+        int i = mix(entityId) & mask;
+        while (slotIndices[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        slotIds[i] = entityId;
+        slotIndices[i] = index + 1;
+    }
+
+    private void removeSlot(int entityId) {
+
+        int i = findSlot(entityId);
+        if (i < 0) {
+            return;
+        }
+        int mask = slotIds.length - 1;
+        slotIndices[i] = 0;
+
+        // shift back any following entries that would no longer be reachable...
+        for (int j = (i + 1) & mask; slotIndices[j] != 0; j = (j + 1) & mask) {
+            int home = mix(slotIds[j]) & mask;
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                slotIds[i] = slotIds[j];
+                slotIndices[i] = slotIndices[j];
+                slotIndices[j] = 0;
+                i = j;
+            }
+        }
+    }
+
+    private void rehash(int capacity) {
+
+        slotIds = new int[capacity];
+        slotIndices = new int[capacity];
+        for (int index = 0; index < size; index++) {
+            putSlot(ids[index], index);
+        }
+    }
+
+    private static int mix(int key) {
+
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,117 @@
+package me.cynadyde.teleportals;
+
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.event.player.PlayerTeleportEvent;
+import org.bukkit.persistence.PersistentDataHolder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Logger;
+
+/**
+ * Gives access to server APIs that are only available on some platforms, such as Paper,
+ * bound once at startup so that the plugin still runs on plain Spigot.
+ */
+public class PlatformAdapter {
+
+    private final MethodHandle getChunkAtAsync;
+    private final MethodHandle teleportAsync;
+    private final boolean chunkData;
+
+    /**
+     * Detect which optional APIs the running server has.
+     */
+    public PlatformAdapter(@NotNull Logger logger) {
+
+        getChunkAtAsync = findVirtual(World.class, "getChunkAtAsync",
+                MethodType.methodType(CompletableFuture.class, int.class, int.class, boolean.class));
+
+        teleportAsync = findVirtual(Entity.class, "teleportAsync",
+                MethodType.methodType(CompletableFuture.class, Location.class, PlayerTeleportEvent.TeleportCause.class));
+
+        chunkData = PersistentDataHolder.class.isAssignableFrom(Chunk.class);
+
+        if (getChunkAtAsync != null) {
+            logger.info("Using Paper's asynchronous chunk loading.");
+        }
+        if (teleportAsync != null) {
+            logger.info("Using Paper's asynchronous teleporting.");
+        }
+        if (chunkData) {
+            logger.info("Storing teleportals in chunk data.");
+        }
+    }
+
+    /**
+     * Check if chunks can hold persistent data on this server, as they can from 1.16.3.
+     */
+    public boolean hasChunkData() {
+        return chunkData;
+    }
+
+    /**
+     * Check if chunks can be loaded asynchronously on this server.
+     */
+    public boolean hasAsyncChunks() {
+        return getChunkAtAsync != null;
+    }
+
+    /**
+     * Start loading the given chunk asynchronously without generating it, completing on the main thread.
+     * Returns null if this server cannot load chunks asynchronously.
+     */
+    @SuppressWarnings("unchecked")
+    public @Nullable CompletableFuture<Chunk> getChunkAtAsync(@NotNull World world, int chunkX, int chunkZ) {
+
+        if (getChunkAtAsync == null) {
+            return null;
+        }
+        try {
+            return (CompletableFuture<Chunk>) (CompletableFuture<?>) getChunkAtAsync.invokeExact(world, chunkX, chunkZ, false);
+        }
+        catch (Throwable ex) {
+            CompletableFuture<Chunk> failed = new CompletableFuture<>();
+            failed.completeExceptionally(ex);
+            return failed;
+        }
+    }
+
+    /**
+     * Teleport the given entity, asynchronously loading the destination chunk first if this server can.
+     * The returned future completes on the main thread with whether the teleport succeeded.
+     */
+    @SuppressWarnings("unchecked")
+    public @NotNull CompletableFuture<Boolean> teleport(@NotNull Entity entity, @NotNull Location location,
+                                                        @NotNull PlayerTeleportEvent.TeleportCause cause) {
+
+        if (teleportAsync != null) {
+            try {
+                return (CompletableFuture<Boolean>) (CompletableFuture<?>) teleportAsync.invokeExact(entity, location, cause);
+            }
+            catch (Throwable ignored) {
+                // fall back to teleporting synchronously...
+            }
+        }
+        return CompletableFuture.completedFuture(entity.teleport(location, cause));
+    }
+
+    /**
+     * Find a public instance method, else null if this server does not have it.
+     */
+    private static @Nullable MethodHandle findVirtual(@NotNull Class<?> owner, @NotNull String name, @NotNull MethodType type) {
+
+        try {
+            return MethodHandles.publicLookup().findVirtual(owner, name, type);
+        }
+        catch (NoSuchMethodException | IllegalAccessException ex) {
+            return null;
+        }
+    }
+}
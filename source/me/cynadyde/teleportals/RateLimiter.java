@@ -0,0 +1,151 @@
+package me.cynadyde.teleportals;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Limits how often each player can perform each rate limited action, measured in server ticks.
+ * Each action is a token bucket, stored as the single tick at which that bucket would be full again.
+ * A player's entry expires once all of their buckets are full.
+ */
+public class RateLimiter {
+
+    /**
+     * The actions that are rate limited.
+     */
+    public enum Action {
+        LINK("link"),
+        ACTIVATE("activate"),
+        TELEPORT("teleport");
+
+        private final String configKey;
+
+        Action(String configKey) {
+            this.configKey = configKey;
+        }
+
+        /**
+         * Get the key of this action's section in the config.
+         */
+        public @NotNull String getConfigKey() {
+            return configKey;
+        }
+    }
+
+    /**
+     * The token budget of a rate limited action.
+     */
+    public static final class Budget {
+
+        /**
+         * A budget that never limits its action.
+         */
+        public static final Budget UNLIMITED = new Budget(0, 0);
+
+        private final int capacity;
+        private final int refillTicks;
+
+        /**
+         * Create a budget that holds up to the given number of tokens, refilling one every given number of ticks.
+         * A budget with no capacity or refill time does not limit its action.
+         */
+        public Budget(int capacity, int refillTicks) {
+            this.capacity = Math.max(0, capacity);
+            this.refillTicks = Math.max(0, refillTicks);
+        }
+
+        /**
+         * Read a budget from the given config section, else an unlimited budget if there is none.
+         */
+        public static @NotNull Budget read(@Nullable ConfigurationSection section) {
+
+            if (section == null) {
+                return UNLIMITED;
+            }
+            return new Budget(section.getInt("capacity"), section.getInt("refill-ticks"));
+        }
+
+        /**
+         * Check if this budget limits its action at all.
+         */
+        public boolean isLimited() {
+            return capacity > 0 && refillTicks > 0;
+        }
+    }
+
+    private static final Action[] ACTIONS = Action.values();
+
+    private final Map<UUID, long[]> fullAt = new HashMap<>();
+
+    /**
+     * Try to take a token from the given player's bucket for the given action.
+     * Returns false, taking nothing, if the bucket is empty.
+     */
+    public boolean tryAcquire(@NotNull UUID player, @NotNull Action action, @NotNull Budget budget, long currentTick) {
+
+        if (!budget.isLimited()) {
+            return true;
+        }
+        long[] buckets = fullAt.get(player);
+        long full = (buckets == null) ? currentTick : Math.max(buckets[action.ordinal()], currentTick);
+
+        // the bucket is empty if it would take more than a full refill of the other tokens to be full again...
+        if (full - currentTick > (long) (budget.capacity - 1) * budget.refillTicks) {
+            return false;
+        }
+        if (buckets == null) {
+            buckets = new long[ACTIONS.length];
+            fullAt.put(player, buckets);
+        }
+        buckets[action.ordinal()] = full + budget.refillTicks;
+        return true;
+    }
+
+    /**
+     * Forget the buckets of the given player.
+     */
+    public void remove(@NotNull UUID player) {
+        fullAt.remove(player);
+    }
+
+    /**
+     * Forget the buckets of every player whose buckets are all full.
+     */
+    public void expire(long currentTick) {
+
+        for (Iterator<long[]> iter = fullAt.values().iterator(); iter.hasNext(); ) {
+            long[] buckets = iter.next();
+
+            boolean allFull = true;
+            for (long full : buckets) {
+                if (full > currentTick) {
+                    allFull = false;
+                    break;
+                }
+            }
+            if (allFull) {
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Get the number of players with buckets that are not yet full.
+     */
+    public int size() {
+        return fullAt.size();
+    }
+
+    /**
+     * Forget the buckets of every player.
+     */
+    public void clear() {
+        fullAt.clear();
+    }
+}
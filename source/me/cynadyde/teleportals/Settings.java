@@ -0,0 +1,467 @@
+package me.cynadyde.teleportals;
+
+import org.bukkit.ChatColor;
+import org.bukkit.Material;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.inventory.ItemStack;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.IllegalFormatException;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * An immutable snapshot of the plugin's configuration, compiled once whenever the config is reloaded.
+ */
+public final class Settings {
+
+    private final String tag;
+    private final Map<String, String> messages;
+
+    private final boolean trackActivePortalCounts;
+    private final boolean anyMetadataEnabled;
+    private final boolean autosaveEnabled;
+    private final int autosaveIntervalTicks;
+
+    private final boolean crossWorld;
+    private final int usageFailDamage;
+    private final boolean tryNonOccludedExit;
+    private final boolean failOnFullyOccludedExit;
+
+    private final boolean gatewayPrismReusable;
+    private final int gatewayPrismAmount;
+    private final ItemStack gatewayPrismTemplate;
+
+    private final List<GroupPolicy.Group> groups;
+    private final Map<RateLimiter.Action, RateLimiter.Budget> rateLimits;
+
+    private final boolean preloadEnabled;
+    private final int preloadIntervalTicks;
+    private final int preloadRadius;
+    private final int preloadPearlRadius;
+    private final int preloadSyncLoadsPerTick;
+    private final int preloadHoldTicks;
+
+    private final boolean keepaliveEnabled;
+    private final int keepaliveWindowTicks;
+    private final int keepaliveMinUses;
+    private final int keepaliveMaxPerWorld;
+    private final int keepaliveMaxTotal;
+
+    private final long chunkScanBudgetNanos;
+
+    private final boolean sweeperEnabled;
+    private final int sweeperIntervalTicks;
+    private final long sweeperBudgetNanos;
+
+    private final boolean transitEnabled;
+    private final int transitIntervalTicks;
+    private final int transitCooldownTicks;
+
+    private final double effectsViewDistance;
+    private final int effectsParticleBudget;
+
+    private final boolean metricsJmxEnabled;
+    private final boolean metricsPrometheusEnabled;
+    private final int metricsPrometheusIntervalTicks;
+
+    /**
+     * Compile the given config into settings, logging any invalid values to the given logger.
+     */
+    public static @NotNull Settings compile(@NotNull FileConfiguration config, @NotNull Logger logger) {
+        return new Settings(config, logger);
+    }
+
+    private Settings(@NotNull FileConfiguration config, @NotNull Logger logger) {
+
+        Map<String, String> messages = new HashMap<>();
+        ConfigurationSection ymlMessages = config.getConfigurationSection("messages");
+        if (ymlMessages != null) {
+            for (String key : ymlMessages.getKeys(false)) {
+                String template = ymlMessages.getString(key);
+                if (template != null) {
+                    messages.put(key, ChatColor.translateAlternateColorCodes('&', template));
+                }
+            }
+        }
+        String tag = messages.remove("tag");
+        this.tag = (tag == null) ? "" : tag;
+        this.messages = Collections.unmodifiableMap(messages);
+
+        boolean anyMetadataEnabled = false;
+        ConfigurationSection ymlMetadata = config.getConfigurationSection("metadata");
+        if (ymlMetadata != null) {
+            for (String key : ymlMetadata.getKeys(false)) {
+                if (ymlMetadata.isBoolean(key) && ymlMetadata.getBoolean(key)) {
+                    anyMetadataEnabled = true;
+                    break;
+                }
+            }
+        }
+        this.anyMetadataEnabled = anyMetadataEnabled;
+        trackActivePortalCounts = config.getBoolean("metadata.track-active-portal-counts", false);
+        autosaveEnabled = config.getBoolean("metadata.autosave.enabled");
+        autosaveIntervalTicks = Math.max(60, config.getInt("metadata.autosave.interval")) * 20;
+
+        crossWorld = config.getBoolean("teleportal.cross-world", true);
+        usageFailDamage = config.getInt("teleportal.usage-fail-damage", 1);
+        tryNonOccludedExit = config.getBoolean("teleportal.try-non-occluded-exit", true);
+        failOnFullyOccludedExit = config.getBoolean("teleportal.fail-on-fully-occluded-exit", false);
+
+        gatewayPrismReusable = config.getBoolean("gateway-prism.reusable", true);
+        gatewayPrismAmount = Math.max(1, config.getInt("gateway-prism.amount"));
+
+        String matName = config.getString("gateway-prism.material");
+        Material mat;
+        try {
+            mat = Material.valueOf(matName);
+        }
+        catch (IllegalArgumentException | NullPointerException ex) {
+            logger.warning(String.format("[Config] The material '%s' at '%s' is invalid.", matName, "gateway-prism.material"));
+            logger.warning("Using the default value: 'GOLDEN_SWORD'.");
+            mat = Material.GOLDEN_SWORD;
+        }
+
+        ItemStack item = new ItemStack(mat, 1);
+
+        String name = config.getString("gateway-prism.display");
+        List<String> lore = config.getStringList("gateway-prism.lore");
+
+        Utils.setDisplayName(item, (name == null) ? null : Utils.format(name));
+        GatewayPrism.tag(item);
+        for (String line : lore) {
+            Utils.addLore(item, Utils.format(line));
+        }
+        gatewayPrismTemplate = item;
+
+        groups = GroupPolicy.readGroups(config.getConfigurationSection("groups"));
+
+        rateLimits = new EnumMap<>(RateLimiter.Action.class);
+        for (RateLimiter.Action action : RateLimiter.Action.values()) {
+            rateLimits.put(action, RateLimiter.Budget.read(config.getConfigurationSection("rate-limits." + action.getConfigKey())));
+        }
+
+        preloadEnabled = config.getBoolean("preload.enabled", true);
+        preloadIntervalTicks = Math.max(1, config.getInt("preload.interval", 10));
+        preloadRadius = Math.max(0, config.getInt("preload.radius", 8));
+        preloadPearlRadius = Math.max(preloadRadius, config.getInt("preload.pearl-radius", 48));
+        preloadSyncLoadsPerTick = Math.max(0, config.getInt("preload.sync-loads-per-tick", 1));
+        preloadHoldTicks = Math.max(1, config.getInt("preload.hold", 600));
+
+        keepaliveEnabled = config.getBoolean("keepalive.enabled", true);
+        keepaliveWindowTicks = Math.max(20, config.getInt("keepalive.window", 1200));
+        keepaliveMinUses = Math.max(1, config.getInt("keepalive.min-uses", 4));
+        keepaliveMaxPerWorld = Math.max(0, config.getInt("keepalive.max-per-world", 8));
+        keepaliveMaxTotal = Math.max(0, config.getInt("keepalive.max-total", 24));
+
+        chunkScanBudgetNanos = (long) (Math.max(0.0, config.getDouble("chunk-scan.budget", 1.0)) * 1_000_000L);
+
+        sweeperEnabled = config.getBoolean("sweeper.enabled", true);
+        sweeperIntervalTicks = Math.max(60, config.getInt("sweeper.interval", 300)) * 20;
+        sweeperBudgetNanos = (long) (Math.max(0.0, config.getDouble("sweeper.budget", 0.5)) * 1_000_000L);
+
+        transitEnabled = config.getBoolean("entity-transit.enabled", false);
+        transitIntervalTicks = Math.max(1, config.getInt("entity-transit.interval", 5));
+        transitCooldownTicks = Math.max(0, config.getInt("entity-transit.cooldown", 20));
+
+        effectsViewDistance = Math.max(1.0, config.getDouble("effects.view-distance", 48.0));
+        effectsParticleBudget = Math.max(0, config.getInt("effects.particle-budget", 2000));
+
+        metricsJmxEnabled = config.getBoolean("metrics.jmx", true);
+        metricsPrometheusEnabled = config.getBoolean("metrics.prometheus.enabled", false);
+        metricsPrometheusIntervalTicks = Math.max(5, config.getInt("metrics.prometheus.interval", 15)) * 20;
+    }
+
+    /**
+     * Get the plugin's chat tag, with its colors already translated.
+     */
+    public @NotNull String getTag() {
+        return tag;
+    }
+
+    /**
+     * Get the message template with the given key, with its colors already translated, else null.
+     */
+    public @Nullable String getMessage(@NotNull String key) {
+        return messages.get(key);
+    }
+
+    /**
+     * Format the message with the given key using the given formatter objects.
+     * If the key does not exist, it will be used as a message template itself.
+     */
+    public @NotNull String formatMessage(@NotNull String key, @Nullable Object... objs) {
+
+        String template = messages.get(key);
+        if (template == null) {
+            return Utils.format(key, objs);
+        }
+        try {
+            return String.format(template, objs);
+        }
+        catch (IllegalFormatException ex) {
+            return template;
+        }
+    }
+
+    /**
+     * Check if the number of teleportals each player has activated is tracked.
+     */
+    public boolean isTrackActivePortalCounts() {
+        return trackActivePortalCounts;
+    }
+
+    /**
+     * Check if any metadata is enabled, in which case the metadata file is kept.
+     */
+    public boolean isAnyMetadataEnabled() {
+        return anyMetadataEnabled;
+    }
+
+    /**
+     * Check if the metadata file is saved periodically.
+     */
+    public boolean isAutosaveEnabled() {
+        return autosaveEnabled;
+    }
+
+    /**
+     * Get the number of ticks between saves of the metadata file.
+     */
+    public int getAutosaveIntervalTicks() {
+        return autosaveIntervalTicks;
+    }
+
+    /**
+     * Check if teleportals can be linked to teleportals in other worlds.
+     */
+    public boolean isCrossWorld() {
+        return crossWorld;
+    }
+
+    /**
+     * Get the damage dealt to a player when using a teleportal fails.
+     */
+    public int getUsageFailDamage() {
+        return usageFailDamage;
+    }
+
+    /**
+     * Check if teleports look for an exit side that will not suffocate the entity.
+     */
+    public boolean isTryNonOccludedExit() {
+        return tryNonOccludedExit;
+    }
+
+    /**
+     * Check if teleports fail when every exit side would suffocate the entity.
+     */
+    public boolean isFailOnFullyOccludedExit() {
+        return failOnFullyOccludedExit;
+    }
+
+    /**
+     * Check if the gateway prism is dropped when its teleportal is broken.
+     */
+    public boolean isGatewayPrismReusable() {
+        return gatewayPrismReusable;
+    }
+
+    /**
+     * Get the number of gateway prisms crafted at a time.
+     */
+    public int getGatewayPrismAmount() {
+        return gatewayPrismAmount;
+    }
+
+    /**
+     * Get the permission groups defined in the config, in order.
+     */
+    public @NotNull List<GroupPolicy.Group> getGroups() {
+        return groups;
+    }
+
+    /**
+     * Get the rate limit budget of the given action.
+     */
+    public @NotNull RateLimiter.Budget getRateLimit(@NotNull RateLimiter.Action action) {
+        return rateLimits.get(action);
+    }
+
+    /**
+     * Check if the destinations of nearby teleportals are loaded ahead of time.
+     */
+    public boolean isPreloadEnabled() {
+        return preloadEnabled;
+    }
+
+    /**
+     * Get the number of ticks between checks for players near teleportals.
+     */
+    public int getPreloadIntervalTicks() {
+        return preloadIntervalTicks;
+    }
+
+    /**
+     * Get the distance in blocks within which a player's nearby teleportals are preloaded.
+     */
+    public int getPreloadRadius() {
+        return preloadRadius;
+    }
+
+    /**
+     * Get the distance in blocks within which a player holding an ender pearl has nearby teleportals preloaded.
+     */
+    public int getPreloadPearlRadius() {
+        return preloadPearlRadius;
+    }
+
+    /**
+     * Get the most destinations loaded on the main thread per tick when chunks cannot load in the background.
+     */
+    public int getPreloadSyncLoadsPerTick() {
+        return preloadSyncLoadsPerTick;
+    }
+
+    /**
+     * Get the number of ticks a preloaded destination is kept loaded.
+     */
+    public int getPreloadHoldTicks() {
+        return preloadHoldTicks;
+    }
+
+    /**
+     * Check if the chunks of busy teleportal destinations are kept loaded.
+     */
+    public boolean isKeepaliveEnabled() {
+        return keepaliveEnabled;
+    }
+
+    /**
+     * Get the number of ticks after which each destination's use count is halved.
+     */
+    public int getKeepaliveWindowTicks() {
+        return keepaliveWindowTicks;
+    }
+
+    /**
+     * Get the number of uses after which a destination is kept loaded.
+     */
+    public int getKeepaliveMinUses() {
+        return keepaliveMinUses;
+    }
+
+    /**
+     * Get the most destinations kept loaded in each world.
+     */
+    public int getKeepaliveMaxPerWorld() {
+        return keepaliveMaxPerWorld;
+    }
+
+    /**
+     * Get the most destinations kept loaded across every world.
+     */
+    public int getKeepaliveMaxTotal() {
+        return keepaliveMaxTotal;
+    }
+
+    /**
+     * Get the nanoseconds of each tick that may be spent finding teleportals in loaded chunks.
+     */
+    public long getChunkScanBudgetNanos() {
+        return chunkScanBudgetNanos;
+    }
+
+    /**
+     * Check if orphaned teleportals in loaded chunks are cleaned up.
+     */
+    public boolean isSweeperEnabled() {
+        return sweeperEnabled;
+    }
+
+    /**
+     * Get the number of ticks over which every loaded chunk is swept once.
+     */
+    public int getSweeperIntervalTicks() {
+        return sweeperIntervalTicks;
+    }
+
+    /**
+     * Get the nanoseconds of each tick that may be spent sweeping chunks.
+     */
+    public long getSweeperBudgetNanos() {
+        return sweeperBudgetNanos;
+    }
+
+    /**
+     * Check if entities that are not players can travel through teleportals.
+     */
+    public boolean isTransitEnabled() {
+        return transitEnabled;
+    }
+
+    /**
+     * Get the number of ticks between checks for entities inside teleportals.
+     */
+    public int getTransitIntervalTicks() {
+        return transitIntervalTicks;
+    }
+
+    /**
+     * Get the number of ticks before an entity that came out of a teleportal can be sent again.
+     */
+    public int getTransitCooldownTicks() {
+        return transitCooldownTicks;
+    }
+
+    /**
+     * Get the distance in blocks beyond which players are sent no teleportal particles.
+     */
+    public double getEffectsViewDistance() {
+        return effectsViewDistance;
+    }
+
+    /**
+     * Get the most particles sent to all players each tick.
+     */
+    public int getEffectsParticleBudget() {
+        return effectsParticleBudget;
+    }
+
+    /**
+     * Check if the plugin's metrics are registered as MBeans.
+     */
+    public boolean isMetricsJmxEnabled() {
+        return metricsJmxEnabled;
+    }
+
+    /**
+     * Check if the plugin's metrics are written to a Prometheus textfile.
+     */
+    public boolean isMetricsPrometheusEnabled() {
+        return metricsPrometheusEnabled;
+    }
+
+    /**
+     * Get the number of ticks between writes of the Prometheus textfile.
+     */
+    public int getMetricsPrometheusIntervalTicks() {
+        return metricsPrometheusIntervalTicks;
+    }
+
+    /**
+     * Create a new gateway prism item stack from the compiled template.
+     */
+    public @NotNull ItemStack makeGatewayPrism(int amount) {
+
+        ItemStack item = gatewayPrismTemplate.clone();
+        item.setAmount(amount);
+        return item;
+    }
+}
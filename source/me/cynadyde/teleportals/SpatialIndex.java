@@ -0,0 +1,267 @@
+package me.cynadyde.teleportals;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A per-world grid of the anchors of activated teleportals, for finding the teleportals near a position.
+ * Anchors are kept as packed block positions in square cells, so a query only visits the cells
+ * around its position, working outward until no closer anchor can be found.
+ * Unlike the registry, anchors are remembered after their chunks unload.
+ */
+public class SpatialIndex {
+
+    /**
+     * The cells are 128 blocks on a side.
+     */
+    private static final int CELL_SHIFT = 7;
+    private static final int CELL_SIZE = 1 << CELL_SHIFT;
+
+    private final Map<UUID, Map<Long, LongSet>> worlds = new HashMap<>();
+    private final Map<UUID, long[]> sortedAnchors = new HashMap<>();
+
+    /**
+     * Add the anchor at the given coordinates.
+     */
+    public void add(@NotNull UUID worldId, int x, int y, int z) {
+
+        worlds.computeIfAbsent(worldId, k -> new HashMap<>())
+                .computeIfAbsent(cellKey(x, z), k -> new LongSet())
+                .add(Utils.packBlock(x, y, z));
+        sortedAnchors.remove(worldId);
+    }
+
+    /**
+     * Remove the anchor at the given coordinates.
+     */
+    public void remove(@NotNull UUID worldId, int x, int y, int z) {
+
+        Map<Long, LongSet> cells = worlds.get(worldId);
+        if (cells == null) {
+            return;
+        }
+        long cellKey = cellKey(x, z);
+        LongSet cell = cells.get(cellKey);
+        if (cell == null || !cell.remove(Utils.packBlock(x, y, z))) {
+            return;
+        }
+        if (cell.isEmpty()) {
+            cells.remove(cellKey);
+        }
+        if (cells.isEmpty()) {
+            worlds.remove(worldId);
+        }
+        sortedAnchors.remove(worldId);
+    }
+
+    /**
+     * Get the packed positions of up to the given number of anchors within the given radius of the given coordinates,
+     * nearest first.
+     */
+    public @NotNull long[] nearest(@NotNull UUID worldId, double x, double y, double z, int limit, double radius) {
+
+        Map<Long, LongSet> cells = worlds.get(worldId);
+        if (cells == null || limit <= 0) {
+            return new long[0];
+        }
+        Matches matches = new Matches(x, y, z, radius);
+        int centerX = (int) Math.floor(x) >> CELL_SHIFT;
+        int centerZ = (int) Math.floor(z) >> CELL_SHIFT;
+        int maxRing = (int) Math.ceil(radius / CELL_SIZE) + 1;
+
+        for (int ring = 0; ring <= maxRing; ring++) {
+
+            // every anchor in this ring is at least this far away, so stop once enough closer ones are found...
+            double ringDistance = Math.max(0, ring - 1) * (double) CELL_SIZE;
+            if (matches.countWithin(ringDistance * ringDistance) >= limit) {
+                break;
+            }
+            // once the rings would cover more cells than the world has, just check every anchor in the world...
+            if ((2L * ring + 1) * (2L * ring + 1) > cells.size()) {
+                matches = new Matches(x, y, z, radius);
+                for (LongSet cell : cells.values()) {
+                    matches.addAll(cell);
+                }
+                break;
+            }
+            if (ring == 0) {
+                matches.addAll(cells.get(Utils.packChunk(centerX, centerZ)));
+                continue;
+            }
+            for (int cellX = centerX - ring; cellX <= centerX + ring; cellX++) {
+                matches.addAll(cells.get(Utils.packChunk(cellX, centerZ - ring)));
+                matches.addAll(cells.get(Utils.packChunk(cellX, centerZ + ring)));
+            }
+            for (int cellZ = centerZ - ring + 1; cellZ <= centerZ + ring - 1; cellZ++) {
+                matches.addAll(cells.get(Utils.packChunk(centerX - ring, cellZ)));
+                matches.addAll(cells.get(Utils.packChunk(centerX + ring, cellZ)));
+            }
+        }
+        return matches.nearest(limit);
+    }
+
+    /**
+     * Get the packed positions of every anchor in the given world, ordered by their x, then z, then y coordinates.
+     * The returned array is shared and must not be modified.
+     */
+    public @NotNull long[] list(@NotNull UUID worldId) {
+
+        long[] sorted = sortedAnchors.get(worldId);
+        if (sorted != null) {
+            return sorted;
+        }
+        Map<Long, LongSet> cells = worlds.get(worldId);
+        if (cells == null) {
+            return new long[0];
+        }
+        sorted = new long[size(worldId)];
+        int n = 0;
+        for (LongSet cell : cells.values()) {
+            for (long packed : cell.toArray()) {
+                sorted[n++] = toSortKey(packed);
+            }
+        }
+        Arrays.sort(sorted);
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = fromSortKey(sorted[i]);
+        }
+        sortedAnchors.put(worldId, sorted);
+        return sorted;
+    }
+
+    /**
+     * Get the number of anchors in the given world.
+     */
+    public int size(@NotNull UUID worldId) {
+
+        Map<Long, LongSet> cells = worlds.get(worldId);
+        if (cells == null) {
+            return 0;
+        }
+        int size = 0;
+        for (LongSet cell : cells.values()) {
+            size += cell.size();
+        }
+        return size;
+    }
+
+    /**
+     * Forget every anchor in the given world.
+     */
+    public void unloadWorld(@NotNull UUID worldId) {
+        worlds.remove(worldId);
+        sortedAnchors.remove(worldId);
+    }
+
+    /**
+     * Forget every anchor.
+     */
+    public void clear() {
+        worlds.clear();
+        sortedAnchors.clear();
+    }
+
+    /**
+     * The anchors found within range of a query, with their squared distances from it.
+     */
+    private static final class Matches {
+
+        private final double x;
+        private final double y;
+        private final double z;
+        private final double radiusSquared;
+        private long[] anchors = new long[16];
+        private double[] distances = new double[16];
+        private int size;
+
+        private Matches(double x, double y, double z, double radius) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.radiusSquared = radius * radius;
+        }
+
+        private void addAll(@Nullable LongSet cell) {
+
+            if (cell == null) {
+                return;
+            }
+            for (long packed : cell.toArray()) {
+                double dx = Utils.unpackBlockX(packed) + 0.5 - x;
+                double dy = Utils.unpackBlockY(packed) + 0.5 - y;
+                double dz = Utils.unpackBlockZ(packed) + 0.5 - z;
+                double distanceSquared = dx * dx + dy * dy + dz * dz;
+                if (distanceSquared <= radiusSquared) {
+                    if (size == anchors.length) {
+                        anchors = Arrays.copyOf(anchors, size * 2);
+                        distances = Arrays.copyOf(distances, size * 2);
+                    }
+                    anchors[size] = packed;
+                    distances[size] = distanceSquared;
+                    size++;
+                }
+            }
+        }
+
+        private int countWithin(double distanceSquared) {
+
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (distances[i] <= distanceSquared) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        private @NotNull long[] nearest(int limit) {
+
+            // selection sort is enough, as only the first few of a handful of matches are wanted...
+            int count = Math.min(limit, size);
+            for (int i = 0; i < count; i++) {
+                int min = i;
+                for (int j = i + 1; j < size; j++) {
+                    if (distances[j] < distances[min]) {
+                        min = j;
+                    }
+                }
+                long anchor = anchors[i];
+                anchors[i] = anchors[min];
+                anchors[min] = anchor;
+                double distance = distances[i];
+                distances[i] = distances[min];
+                distances[min] = distance;
+            }
+            return Arrays.copyOf(anchors, count);
+        }
+    }
+
+    private static long cellKey(int x, int z) {
+        return Utils.packChunk(x >> CELL_SHIFT, z >> CELL_SHIFT);
+    }
+
+    /**
+     * Repack a packed block position so that sorting the results as signed longs orders them by x, then z, then y.
+     */
+    private static long toSortKey(long packed) {
+
+        long x = Utils.unpackBlockX(packed) + (1L << 25);
+        long z = Utils.unpackBlockZ(packed) + (1L << 25);
+        long y = Utils.unpackBlockY(packed) + (1L << 11);
+        return ((x << 38) | (z << 12) | y) ^ Long.MIN_VALUE;
+    }
+
+    private static long fromSortKey(long key) {
+
+        long unsigned = key ^ Long.MIN_VALUE;
+        int x = (int) (unsigned >>> 38) - (1 << 25);
+        int z = (int) ((unsigned >>> 12) & 0x3FFFFFFL) - (1 << 25);
+        int y = (int) (unsigned & 0xFFFL) - (1 << 11);
+        return Utils.packBlock(x, y, z);
+    }
+}
@@ -1,33 +1,44 @@
 package me.cynadyde.teleportals;
 
 import org.apache.commons.lang.ArrayUtils;
+import org.bukkit.Chunk;
 import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.Particle;
 import org.bukkit.Sound;
 import org.bukkit.SoundCategory;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 import org.bukkit.block.EndGateway;
 import org.bukkit.block.data.Directional;
-import org.bukkit.entity.ArmorStand;
 import org.bukkit.entity.Entity;
 import org.bukkit.event.player.PlayerTeleportEvent;
-import org.bukkit.inventory.ItemStack;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * A representative of a teleportal structure in the a world.
  */
 public class Teleportal {
 
+    /**
+     * A mask with a bit set for each of the exit sides in {@link Utils#FACES}.
+     */
+    private static final int ALL_EXITS = (1 << Utils.FACES.length) - 1;
+
     final private Block anchor;
+    private BlockFace facing;
+    private int occludedExits;
+    private int checkedExits;
+    private BlockKey link;
+    private boolean linkResolved;
 
     /**
      * Get a teleportal if the given block is part of a teleportal structure, else null.
+     * Activated teleportals are found in the registry, others are probed for in the world.
      */
     public static @Nullable Teleportal getFromStruct(@Nullable Block block) {
 
@@ -35,6 +46,16 @@ public class Teleportal {
             return null;
         }
 
+        Teleportal registered = TeleportalsPlugin.getInstance().getRegistry().find(block);
+        if (registered != null) {
+            return registered;
+        }
+
+        Material type = block.getType();
+        if (type != Material.ENDER_CHEST && type != Material.END_GATEWAY && type != Material.OBSIDIAN) {
+            return null;
+        }
+
         for (BlockFace rel : new BlockFace[]{BlockFace.SELF, BlockFace.UP, BlockFace.DOWN}) {
 
             Teleportal teleportal = new Teleportal(block.getRelative(rel));
@@ -53,6 +74,16 @@ public class Teleportal {
         anchor = structAnchor;
     }
 
+    /**
+     * Represent the given block as an activated teleportal stored with the given facing.
+     */
+    static @NotNull Teleportal fromStore(@NotNull Block structAnchor, @NotNull BlockFace markerFacing) {
+
+        Teleportal teleportal = new Teleportal(structAnchor);
+        teleportal.facing = markerFacing;
+        return teleportal;
+    }
+
     /**
      * Check if the teleportal's structure is what it should be.
      */
@@ -86,12 +117,11 @@ public class Teleportal {
         if (anchor.getBlockData() instanceof Directional) {
             result = ((Directional) anchor.getBlockData()).getFacing();
         }
+        else if (facing != null) {
+            result = facing;
+        }
         else {
-            ArmorStand marker = Utils.getMarker(anchor, TeleportalsPlugin.getKey("teleportal").toString());
-
-            if (marker != null) {
-                result = marker.getFacing();
-            }
+            result = TeleportalsPlugin.getInstance().getStore().getFacing(anchor);
         }
 
         if (result == null || !ArrayUtils.contains(Utils.FACES, result)) {
@@ -100,21 +130,66 @@ public class Teleportal {
         return result;
     }
 
+    /**
+     * Get a mask of the exit sides that would suffocate an entity, with bits indexed like {@link Utils#FACES}.
+     * Only the sides that changed since they were last checked are looked up in the world.
+     */
+    public int getOccludedExits() {
+
+        if (checkedExits != ALL_EXITS) {
+            for (int i = 0; i < Utils.FACES.length; i++) {
+                int bit = 1 << i;
+                if ((checkedExits & bit) == 0) {
+                    Block side = anchor.getRelative(Utils.FACES[i]);
+                    if (side.getType().isOccluding() && side.getRelative(BlockFace.DOWN).getType().isOccluding()) {
+                        occludedExits |= bit;
+                    }
+                    else {
+                        occludedExits &= ~bit;
+                    }
+                }
+            }
+            checkedExits = ALL_EXITS;
+        }
+        return occludedExits;
+    }
+
+    /**
+     * Mark the exit side at the given index in {@link Utils#FACES} as changed, so it is checked again before it is next used.
+     */
+    void invalidateExit(int faceIndex) {
+        checkedExits &= ~(1 << faceIndex);
+    }
+
     /**
      * Get the gateway prism contained in this teleportal if it has one, else null.
      */
-    public @Nullable ItemStack getGatewayPrism() {
+    public @Nullable GatewayPrism getGatewayPrism() {
 
-        ArmorStand marker = Utils.getMarker(anchor, TeleportalsPlugin.getKey("teleportal").toString());
+        TeleportalStore store = TeleportalsPlugin.getInstance().getStore();
+        GatewayPrism gatewayPrism = GatewayPrism.of(store.getGatewayPrism(anchor));
+
+        if (gatewayPrism != null && gatewayPrism.wasMigrated()) {
+            store.setGatewayPrism(anchor, gatewayPrism.getItem());
+        }
+        return gatewayPrism;
+    }
 
-        if (marker != null) {
-            ItemStack item = Objects.requireNonNull(marker.getEquipment()).getItemInMainHand();
+    /**
+     * Get the block this teleportal's gateway prism is linked to if it has one, else null.
+     * The link is read from the gateway prism once, then kept for as long as this teleportal stays activated.
+     */
+    public @Nullable BlockKey getLink() {
 
-            if (Utils.hasLoreTag(item, TeleportalsPlugin.getKey("gateway_prism").toString())) {
-                return item;
+        if (!linkResolved) {
+            GatewayPrism gatewayPrism = getGatewayPrism();
+            if (gatewayPrism == null) {
+                return null;
             }
+            link = gatewayPrism.getLink();
+            linkResolved = true;
         }
-        return null;
+        return link;
     }
 
     /**
@@ -122,11 +197,7 @@ public class Teleportal {
      */
     public @Nullable String getPortalName() {
 
-        ArmorStand marker = Utils.getMarker(getAnchor(), TeleportalsPlugin.getKey("teleportal").toString());
-        if (marker != null) {
-            return Utils.getDisplayName(Objects.requireNonNull(marker.getEquipment()).getHelmet());
-        }
-        return null;
+        return TeleportalsPlugin.getInstance().getStore().getOwner(anchor);
     }
 
     /**
@@ -134,123 +205,177 @@ public class Teleportal {
      */
     public void setPortalName(@Nullable String name) {
 
-        ArmorStand marker = Utils.getMarker(getAnchor(), TeleportalsPlugin.getKey("teleportal").toString());
-        if (marker != null) {
-
-            ItemStack helmet = new ItemStack(Material.GOLDEN_HELMET);
-            Utils.setDisplayName(helmet, name);
-            Objects.requireNonNull(marker.getEquipment()).setHelmet(helmet);
-        }
+        TeleportalsPlugin.getInstance().getStore().setOwner(anchor, name);
     }
 
     /**
      * Link the given gateway prism to this teleportal.
      */
-    public void linkGatewayPrism(ItemStack gatewayPrism) {
+    public void linkGatewayPrism(@NotNull GatewayPrism gatewayPrism) {
 
-        if (Utils.hasLoreTag(gatewayPrism, TeleportalsPlugin.getKey("gateway_prism").toString())) {
-            Utils.setLoreData(gatewayPrism, Utils.format("&6&klink"), Utils.blockToKey(anchor));
+        gatewayPrism.withLink(BlockKey.of(anchor));
 
-            Location loc = anchor.getLocation().add(0.5, 0.5, 0.5);
-            anchor.getWorld().spawnParticle(Particle.DRAGON_BREATH, loc, 100, 0.25, 0.25, 0.25, 0.075);
-            anchor.getWorld().playSound(loc, Sound.BLOCK_ENCHANTMENT_TABLE_USE, SoundCategory.BLOCKS, 1.5f, 0.5f);
-        }
+        EffectsScheduler effects = TeleportalsPlugin.getInstance().getEffects();
+        Location loc = anchor.getLocation().add(0.5, 0.5, 0.5);
+        effects.particle(loc, Particle.DRAGON_BREATH, 100, 0.25, 0.25, 0.25, 0.075);
+        effects.sound(loc, Sound.BLOCK_ENCHANTMENT_TABLE_USE, SoundCategory.BLOCKS, 1.5f, 0.5f);
     }
 
     /**
      * Turn on the teleportal. This only works if it is currently off.
      * The gateway prism must be linked to another teleportal.
      */
-    public boolean activate(ItemStack gatewayPrism) {
+    public boolean activate(@NotNull GatewayPrism gatewayPrism) {
 
         boolean success = false;
+        EffectsScheduler effects = TeleportalsPlugin.getInstance().getEffects();
         Location loc = anchor.getLocation().add(0.5, 0.5, 0.5);
 
         activating:
         {
-            if (!Utils.hasLoreTag(gatewayPrism, TeleportalsPlugin.getKey("gateway_prism").toString())) {
-                break activating;
-            }
-            if (!Utils.hasLoreData(gatewayPrism, "link")) {
+            BlockKey link = gatewayPrism.getLink();
+            if (link == null) {
                 break activating;
             }
-            if (Utils.getLoreData(gatewayPrism, "link").equalsIgnoreCase(Utils.blockToKey(anchor))) {
+            if (link.matches(anchor)) {
                 break activating;
             }
             if (anchor.getType() == Material.END_GATEWAY) {
                 break activating;
             }
-            if (Utils.getMarker(anchor, TeleportalsPlugin.getKey("teleportal").toString()) != null) {
+            if (TeleportalsPlugin.getInstance().getStore().has(anchor)) {
                 break activating;
             }
-            Utils.createMarker(anchor, getFacing(), TeleportalsPlugin.getKey("teleportal").toString(), gatewayPrism);
+            facing = getFacing();
+            this.link = link;
+            linkResolved = true;
+            TeleportalsPlugin.getInstance().getStore().create(anchor, facing, gatewayPrism.getItem());
             anchor.setType(Material.END_GATEWAY);
+            getOccludedExits();
+            TeleportalsPlugin.getInstance().getRegistry().register(this);
 
             if (anchor.getState() instanceof EndGateway) {
                 EndGateway endGateway = (EndGateway) anchor.getState();
                 endGateway.setAge(Long.MIN_VALUE); // approx. 292 million years
                 endGateway.update(true);
             }
-            anchor.getWorld().spawnParticle(Particle.END_ROD, loc, 200, 0.1, 0.1, 0.1, 0.10);
-            anchor.getWorld().spawnParticle(Particle.DRAGON_BREATH, loc, 100, 0.25, 0.25, 0.25, 0.075);
-            anchor.getWorld().spawnParticle(Particle.CAMPFIRE_COSY_SMOKE, loc, 50, 0.1, 0.1, 0.1, 0.025);
-            anchor.getWorld().playSound(loc, Sound.BLOCK_ENCHANTMENT_TABLE_USE, SoundCategory.BLOCKS, 1.5f, 0.5f);
-            anchor.getWorld().playSound(loc, Sound.BLOCK_END_PORTAL_SPAWN, SoundCategory.BLOCKS, 1.5f, 1.5f);
-            anchor.getWorld().playSound(loc, Sound.BLOCK_PORTAL_TRIGGER, SoundCategory.BLOCKS, 1.5f, 0.5f);
+            effects.particle(loc, Particle.END_ROD, 200, 0.1, 0.1, 0.1, 0.10);
+            effects.particle(loc, Particle.DRAGON_BREATH, 100, 0.25, 0.25, 0.25, 0.075);
+            effects.particle(loc, Particle.CAMPFIRE_COSY_SMOKE, 50, 0.1, 0.1, 0.1, 0.025);
+            effects.sound(loc, Sound.BLOCK_ENCHANTMENT_TABLE_USE, SoundCategory.BLOCKS, 1.5f, 0.5f);
+            effects.sound(loc, Sound.BLOCK_END_PORTAL_SPAWN, SoundCategory.BLOCKS, 1.5f, 1.5f);
+            effects.sound(loc, Sound.BLOCK_PORTAL_TRIGGER, SoundCategory.BLOCKS, 1.5f, 0.5f);
             success = true;
         }
         if (!success) {
             float randomPitch = 0.90f + (Utils.RNG.nextFloat() * 0.20f);
-            anchor.getWorld().spawnParticle(Particle.CAMPFIRE_COSY_SMOKE, loc, 50, 0.1, 0.1, 0.1, 0.025);
-            anchor.getWorld().playSound(loc, Sound.BLOCK_REDSTONE_TORCH_BURNOUT, 1.0f, randomPitch);
+            effects.particle(loc, Particle.CAMPFIRE_COSY_SMOKE, 50, 0.1, 0.1, 0.1, 0.025);
+            effects.sound(loc, Sound.BLOCK_REDSTONE_TORCH_BURNOUT, SoundCategory.MASTER, 1.0f, randomPitch);
         }
         return success;
     }
 
     /**
      * Turn off the teleportal. This works weather it is on, off, or in a broken state.
+     * An end gateway anchor is turned back into an ender chest, but any other anchor block is left alone.
      */
     public void deactivate(boolean dropGatewayPrism) {
 
         Location loc = anchor.getLocation().add(0.5, 0.5, 0.5);
         BlockFace facing = getFacing();
-        ItemStack gatewayPrism = getGatewayPrism();
-
-        Utils.removeMarker(anchor, TeleportalsPlugin.getKey("teleportal").toString());
+        GatewayPrism gatewayPrism = getGatewayPrism();
+
+        TeleportalsPlugin plugin = TeleportalsPlugin.getInstance();
+        EffectsScheduler effects = plugin.getEffects();
+        plugin.getStore().remove(anchor);
+        plugin.getRegistry().unregister(anchor);
+        if (!plugin.getRegistry().hasAny(anchor.getWorld(), anchor.getX() >> 4, anchor.getZ() >> 4)) {
+            plugin.getChunkKeepalive().release(anchor);
+        }
+        link = null;
+        linkResolved = false;
 
         if (anchor.getType() != Material.ENDER_CHEST) {
-            anchor.getWorld().spawnParticle(Particle.EXPLOSION_LARGE, loc, 5, 0.1, 0.1, 0.05);
-            anchor.getWorld().spawnParticle(Particle.DRAGON_BREATH, loc, 100, 0.25, 0.25, 0.25, 0.075);
-            anchor.getWorld().spawnParticle(Particle.CAMPFIRE_COSY_SMOKE, loc, 50, 0.1, 0.1, 0.1, 0.025);
-            anchor.getWorld().playSound(loc, Sound.ENTITY_DRAGON_FIREBALL_EXPLODE, SoundCategory.BLOCKS, 1.5f, 0.25f);
+            effects.particle(loc, Particle.EXPLOSION_LARGE, 5, 0.1, 0.1, 0.05, 1.0);
+            effects.particle(loc, Particle.DRAGON_BREATH, 100, 0.25, 0.25, 0.25, 0.075);
+            effects.particle(loc, Particle.CAMPFIRE_COSY_SMOKE, 50, 0.1, 0.1, 0.1, 0.025);
+            effects.sound(loc, Sound.ENTITY_DRAGON_FIREBALL_EXPLODE, SoundCategory.BLOCKS, 1.5f, 0.25f);
         }
-        anchor.setType(Material.ENDER_CHEST);
-        if (anchor.getBlockData() instanceof Directional) {
-            Directional blockData = (Directional) anchor.getBlockData();
-            blockData.setFacing(facing);
-            anchor.setBlockData(blockData);
+        if (anchor.getType() == Material.END_GATEWAY) {
+            anchor.setType(Material.ENDER_CHEST);
+            if (anchor.getBlockData() instanceof Directional) {
+                Directional blockData = (Directional) anchor.getBlockData();
+                blockData.setFacing(facing);
+                anchor.setBlockData(blockData);
+            }
         }
         if (dropGatewayPrism && gatewayPrism != null) {
-            anchor.getWorld().dropItemNaturally(loc, gatewayPrism);
+            anchor.getWorld().dropItemNaturally(loc, gatewayPrism.getItem());
         }
     }
 
     /**
      * Teleport the given entity through the teleportal.
+     * The returned future completes on the main thread with whether the teleport succeeded.
      */
-    public boolean teleport(Entity entity, BlockFace enterFace, boolean tryNonOccludedExit, boolean failOnFullyOccludedExit) {
+    public @NotNull CompletableFuture<Boolean> teleport(Entity entity, BlockFace enterFace, boolean tryNonOccludedExit, boolean failOnFullyOccludedExit) {
 
-        if (!isActivated()) {
-            return false;
-        }
-        Location loc = anchor.getLocation();
-        ItemStack gatewayPrism = getGatewayPrism();
+        // timed until the teleport completes, including any chunk it has to load first...
+        long start = System.nanoTime();
+        CompletableFuture<Boolean> result = startTeleport(entity, enterFace, tryNonOccludedExit, failOnFullyOccludedExit);
+        result.whenComplete((success, ex) -> TeleportalsPlugin.getInstance().getMetrics().record(Metrics.Timing.TELEPORT, start));
+        return result;
+    }
 
-        String exitKey = Utils.getLoreData(gatewayPrism, "link");
-        Teleportal exit = Teleportal.getFromStruct(Utils.keyToBlock(exitKey));
+    private @NotNull CompletableFuture<Boolean> startTeleport(Entity entity, BlockFace enterFace, boolean tryNonOccludedExit, boolean failOnFullyOccludedExit) {
+
+        if (anchor.getType() != Material.END_GATEWAY) {
+            return CompletableFuture.completedFuture(false);
+        }
+        BlockKey link = getLink();
+        if (link == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        // activated exits are resolved straight from the registry...
+        Teleportal exit = TeleportalsPlugin.getInstance().getRegistry().getIntact(link);
+        if (exit != null) {
+            return teleportTo(exit, entity, enterFace, tryNonOccludedExit, failOnFullyOccludedExit);
+        }
+        // others are probed for in the world, after loading their chunk in the background where the server can...
+        World world = link.getWorld();
+        if (world == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        if (!world.isChunkLoaded(link.getX() >> 4, link.getZ() >> 4)) {
+            CompletableFuture<Chunk> future = TeleportalsPlugin.getInstance().getPlatform()
+                    .getChunkAtAsync(world, link.getX() >> 4, link.getZ() >> 4);
+            if (future != null) {
+                return future.thenCompose(chunk -> {
+                    Teleportal loadedExit = TeleportalsPlugin.getInstance().getRegistry().getIntact(link);
+                    if (loadedExit == null) {
+                        loadedExit = Teleportal.getFromStruct(link.getBlock());
+                    }
+                    if (loadedExit == null || !entity.isValid() || anchor.getType() != Material.END_GATEWAY) {
+                        return CompletableFuture.completedFuture(false);
+                    }
+                    return teleportTo(loadedExit, entity, enterFace, tryNonOccludedExit, failOnFullyOccludedExit);
+                }).exceptionally(ex -> false);
+            }
+        }
+        exit = Teleportal.getFromStruct(link.getBlock());
         if (exit == null) {
-            return false;
+            return CompletableFuture.completedFuture(false);
         }
+        return teleportTo(exit, entity, enterFace, tryNonOccludedExit, failOnFullyOccludedExit);
+    }
+
+    /**
+     * Teleport the given entity out of the given exit, on the side matching the one it entered this teleportal by.
+     */
+    private @NotNull CompletableFuture<Boolean> teleportTo(@NotNull Teleportal exit, Entity entity, BlockFace enterFace,
+                                                           boolean tryNonOccludedExit, boolean failOnFullyOccludedExit) {
+
+        Location loc = anchor.getLocation();
         Location tpLoc = exit.getAnchor().getLocation().add(0.5, -0.5, 0.5);
 
         BlockFace thisFace = this.getFacing();
@@ -258,19 +383,23 @@ public class Teleportal {
         BlockFace exitFace;
         {
             int hitFaceOffset = (enterFace.ordinal() - thisFace.ordinal());
-            int unOccludedExitOffset = 0;
-            do {
-                int i = thatFace.ordinal() + hitFaceOffset + unOccludedExitOffset;
-                exitFace = Utils.FACES[Math.floorMod(i, Utils.FACES.length)];
-                unOccludedExitOffset++;
-            }
-            while (tryNonOccludedExit &&
-                    unOccludedExitOffset <= 4 &&
-                    exit.getAnchor().getRelative(exitFace).getType().isOccluding() &&
-                    exit.getAnchor().getRelative(exitFace).getRelative(BlockFace.DOWN).getType().isOccluding());
-            if (failOnFullyOccludedExit && unOccludedExitOffset >= 4) {
-                return false;
+            int preferred = Math.floorMod(thatFace.ordinal() + hitFaceOffset, Utils.FACES.length);
+            int exitIndex = preferred;
+
+            if (tryNonOccludedExit) {
+                int occluded = exit.getOccludedExits();
+                if (occluded == ALL_EXITS) {
+                    if (failOnFullyOccludedExit) {
+                        return CompletableFuture.completedFuture(false);
+                    }
+                }
+                else {
+                    // rotate the mask so the preferred side is the lowest bit, then take the first clear side...
+                    int rotated = ((occluded >>> preferred) | (occluded << (Utils.FACES.length - preferred))) & ALL_EXITS;
+                    exitIndex = (preferred + Integer.numberOfTrailingZeros(~rotated)) % Utils.FACES.length;
+                }
             }
+            exitFace = Utils.FACES[exitIndex];
         }
         tpLoc.add(exitFace.getDirection());
 
@@ -282,10 +411,17 @@ public class Teleportal {
         tpLoc.setYaw(endYaw);
         tpLoc.setPitch(entity.getLocation().getPitch());
 
-        float randomSoundPitch = 0.75f + (Utils.RNG.nextFloat() % 0.75f);
-        anchor.getWorld().playSound(loc, Sound.BLOCK_PORTAL_TRIGGER, SoundCategory.BLOCKS, 0.25f, randomSoundPitch);
-
-        entity.teleport(tpLoc, PlayerTeleportEvent.TeleportCause.END_GATEWAY);
-        return true;
+        Block exitAnchor = exit.getAnchor();
+        TeleportalsPlugin plugin = TeleportalsPlugin.getInstance();
+        return plugin.getPlatform()
+                .teleport(entity, tpLoc, PlayerTeleportEvent.TeleportCause.END_GATEWAY)
+                .thenApply(success -> {
+                    if (success) {
+                        plugin.getChunkKeepalive().recordUse(exitAnchor, plugin.getSettings());
+                        float randomSoundPitch = 0.75f + (Utils.RNG.nextFloat() % 0.75f);
+                        plugin.getEffects().sound(loc, Sound.BLOCK_PORTAL_TRIGGER, SoundCategory.BLOCKS, 0.25f, randomSoundPitch);
+                    }
+                    return success;
+                });
     }
 }
@@ -0,0 +1,329 @@
+package me.cynadyde.teleportals;
+
+import org.bukkit.Chunk;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * An in-memory index of the activated teleportals in each loaded chunk,
+ * keyed by world, then by packed chunk position, then by packed block position.
+ */
+public class TeleportalRegistry {
+
+    /**
+     * The vertical offsets checked, in order, when finding a teleportal from one of its blocks.
+     */
+    private static final int[] STRUCT_OFFSETS = {0, 1, -1};
+
+    private final Map<UUID, Map<Long, Map<Long, Teleportal>>> worlds = new HashMap<>();
+    private final Map<UUID, LongSet> anchors = new HashMap<>();
+    private final SpatialIndex index = new SpatialIndex();
+
+    /**
+     * Get the spatial index of every activated teleportal registered since the registry was last cleared,
+     * including those whose chunks have since unloaded.
+     */
+    public @NotNull SpatialIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Check if a teleportal is registered as anchored at the given coordinates, without boxing its key.
+     */
+    public boolean isAnchor(@NotNull World world, int x, int y, int z) {
+
+        LongSet worldAnchors = anchors.get(world.getUID());
+        return worldAnchors != null && worldAnchors.contains(Utils.packBlock(x, y, z));
+    }
+
+    /**
+     * Get the registered teleportal anchored at the given block, else null.
+     */
+    public @Nullable Teleportal get(@NotNull Block anchor) {
+        return get(anchor.getWorld(), anchor.getX(), anchor.getY(), anchor.getZ());
+    }
+
+    /**
+     * Get the registered teleportal anchored at the given coordinates, else null.
+     */
+    public @Nullable Teleportal get(@NotNull World world, int x, int y, int z) {
+
+        Map<Long, Map<Long, Teleportal>> chunks = worlds.get(world.getUID());
+        if (chunks == null) {
+            return null;
+        }
+        Map<Long, Teleportal> portals = chunks.get(Utils.packChunk(x >> 4, z >> 4));
+        if (portals == null) {
+            return null;
+        }
+        return portals.get(Utils.packBlock(x, y, z));
+    }
+
+    /**
+     * Get the registered teleportal anchored at the given block key, else null.
+     * This does not need the key's world or chunk to be loaded.
+     */
+    public @Nullable Teleportal get(@NotNull BlockKey key) {
+
+        Map<Long, Map<Long, Teleportal>> chunks = worlds.get(key.getWorldId());
+        if (chunks == null) {
+            return null;
+        }
+        Map<Long, Teleportal> portals = chunks.get(key.getChunkKey());
+        if (portals == null) {
+            return null;
+        }
+        return portals.get(key.getPacked());
+    }
+
+    /**
+     * Get the registered teleportal anchored at the given block key if its structure is still intact, else null.
+     * A teleportal whose structure was changed without the plugin noticing, such as by a world editor, is unregistered.
+     */
+    public @Nullable Teleportal getIntact(@NotNull BlockKey key) {
+
+        Teleportal teleportal = get(key);
+        if (teleportal != null && !teleportal.isStructOk()) {
+            unregister(teleportal.getAnchor());
+            return null;
+        }
+        return teleportal;
+    }
+
+    /**
+     * Mark the exit sides of any registered teleportals next to the given coordinates as changed,
+     * so that their occlusion is checked again before they are next used.
+     */
+    public void invalidateExitsNear(@NotNull World world, int x, int y, int z) {
+
+        LongSet worldAnchors = anchors.get(world.getUID());
+        if (worldAnchors == null) {
+            return;
+        }
+        for (int i = 0; i < Utils.FACES.length; i++) {
+            int anchorX = x - Utils.FACES[i].getModX();
+            int anchorZ = z - Utils.FACES[i].getModZ();
+
+            // the changed block is either an exit side itself or the block below one...
+            for (int anchorY = y; anchorY <= y + 1; anchorY++) {
+                if (worldAnchors.contains(Utils.packBlock(anchorX, anchorY, anchorZ))) {
+                    Teleportal teleportal = get(world, anchorX, anchorY, anchorZ);
+                    if (teleportal != null) {
+                        teleportal.invalidateExit(i);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the registered teleportal whose structure contains the given block, else null.
+     * A teleportal whose structure was changed without the plugin noticing, such as by a world editor, is unregistered.
+     */
+    public @Nullable Teleportal find(@NotNull Block block) {
+
+        Map<Long, Map<Long, Teleportal>> chunks = worlds.get(block.getWorld().getUID());
+        if (chunks == null) {
+            return null;
+        }
+        Map<Long, Teleportal> portals = chunks.get(Utils.packChunk(block.getX() >> 4, block.getZ() >> 4));
+        if (portals == null) {
+            return null;
+        }
+        for (int dy : STRUCT_OFFSETS) {
+
+            Teleportal teleportal = portals.get(Utils.packBlock(block.getX(), block.getY() + dy, block.getZ()));
+            if (teleportal != null) {
+                if (teleportal.isStructOk()) {
+                    return teleportal;
+                }
+                unregister(teleportal.getAnchor());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check if any teleportals are registered in the given chunk.
+     */
+    public boolean hasAny(@NotNull World world, int chunkX, int chunkZ) {
+
+        Map<Long, Map<Long, Teleportal>> chunks = worlds.get(world.getUID());
+        return chunks != null && chunks.containsKey(Utils.packChunk(chunkX, chunkZ));
+    }
+
+    /**
+     * Check if any teleportals are registered in the chunks between the given chunk coordinates, inclusive.
+     */
+    public boolean hasAnyBetween(@NotNull World world, int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ) {
+
+        Map<Long, Map<Long, Teleportal>> chunks = worlds.get(world.getUID());
+        if (chunks == null) {
+            return false;
+        }
+        long area = (long) (maxChunkX - minChunkX + 1) * (maxChunkZ - minChunkZ + 1);
+        if (chunks.size() < area) {
+            for (long chunkKey : chunks.keySet()) {
+                int chunkX = Utils.unpackChunkX(chunkKey);
+                int chunkZ = Utils.unpackChunkZ(chunkKey);
+                if (chunkX >= minChunkX && chunkX <= maxChunkX && chunkZ >= minChunkZ && chunkZ <= maxChunkZ) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+            for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                if (chunks.containsKey(Utils.packChunk(chunkX, chunkZ))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the teleportals registered in the given chunk.
+     */
+    public @NotNull Collection<Teleportal> getAll(@NotNull World world, int chunkX, int chunkZ) {
+
+        Map<Long, Map<Long, Teleportal>> chunks = worlds.get(world.getUID());
+        if (chunks == null) {
+            return Collections.emptyList();
+        }
+        Map<Long, Teleportal> portals = chunks.get(Utils.packChunk(chunkX, chunkZ));
+        if (portals == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableCollection(portals.values());
+    }
+
+    /**
+     * Get the teleportals registered in the given world, grouped by the packed coordinates of their chunks.
+     * The maps are the registry's own, to be iterated in place but not modified.
+     */
+    public @NotNull Map<Long, Map<Long, Teleportal>> getChunks(@NotNull World world) {
+
+        Map<Long, Map<Long, Teleportal>> chunks = worlds.get(world.getUID());
+        if (chunks == null) {
+            return Collections.emptyMap();
+        }
+        return Collections.unmodifiableMap(chunks);
+    }
+
+    /**
+     * Get the number of registered teleportals.
+     */
+    public int size() {
+
+        int size = 0;
+        for (Map<Long, Map<Long, Teleportal>> chunks : worlds.values()) {
+            for (Map<Long, Teleportal> portals : chunks.values()) {
+                size += portals.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Add the given teleportal to the registry and the spatial index, replacing any at the same anchor.
+     */
+    public void register(@NotNull Teleportal teleportal) {
+
+        Block anchor = teleportal.getAnchor();
+        long blockKey = Utils.packBlock(anchor.getX(), anchor.getY(), anchor.getZ());
+        worlds.computeIfAbsent(anchor.getWorld().getUID(), k -> new HashMap<>())
+                .computeIfAbsent(Utils.packChunk(anchor.getX() >> 4, anchor.getZ() >> 4), k -> new HashMap<>())
+                .put(blockKey, teleportal);
+        anchors.computeIfAbsent(anchor.getWorld().getUID(), k -> new LongSet()).add(blockKey);
+        index.add(anchor.getWorld().getUID(), anchor.getX(), anchor.getY(), anchor.getZ());
+    }
+
+    /**
+     * Remove the teleportal anchored at the given block from the registry and the spatial index.
+     */
+    public void unregister(@NotNull Block anchor) {
+
+        index.remove(anchor.getWorld().getUID(), anchor.getX(), anchor.getY(), anchor.getZ());
+        Map<Long, Map<Long, Teleportal>> chunks = worlds.get(anchor.getWorld().getUID());
+        if (chunks == null) {
+            return;
+        }
+        long chunkKey = Utils.packChunk(anchor.getX() >> 4, anchor.getZ() >> 4);
+        Map<Long, Teleportal> portals = chunks.get(chunkKey);
+        if (portals == null) {
+            return;
+        }
+        long blockKey = Utils.packBlock(anchor.getX(), anchor.getY(), anchor.getZ());
+        portals.remove(blockKey);
+        anchors.get(anchor.getWorld().getUID()).remove(blockKey);
+        if (portals.isEmpty()) {
+            chunks.remove(chunkKey);
+        }
+        if (chunks.isEmpty()) {
+            worlds.remove(anchor.getWorld().getUID());
+            anchors.remove(anchor.getWorld().getUID());
+        }
+    }
+
+    /**
+     * Register every one of the given stored teleportals whose anchor is an end gateway and whose structure is intact.
+     */
+    public void registerIntact(@NotNull Collection<Teleportal> teleportals) {
+
+        for (Teleportal teleportal : teleportals) {
+            if (teleportal.getAnchor().getType() == Material.END_GATEWAY && teleportal.isStructOk()) {
+                register(teleportal);
+            }
+        }
+    }
+
+    /**
+     * Forget every teleportal registered in the given chunk.
+     */
+    public void unloadChunk(@NotNull Chunk chunk) {
+
+        Map<Long, Map<Long, Teleportal>> chunks = worlds.get(chunk.getWorld().getUID());
+        if (chunks == null) {
+            return;
+        }
+        Map<Long, Teleportal> portals = chunks.remove(Utils.packChunk(chunk.getX(), chunk.getZ()));
+        if (portals != null) {
+            LongSet worldAnchors = anchors.get(chunk.getWorld().getUID());
+            for (long blockKey : portals.keySet()) {
+                worldAnchors.remove(blockKey);
+            }
+        }
+        if (chunks.isEmpty()) {
+            worlds.remove(chunk.getWorld().getUID());
+            anchors.remove(chunk.getWorld().getUID());
+        }
+    }
+
+    /**
+     * Forget every teleportal registered in the given world.
+     */
+    public void unloadWorld(@NotNull World world) {
+        worlds.remove(world.getUID());
+        anchors.remove(world.getUID());
+        index.unloadWorld(world.getUID());
+    }
+
+    /**
+     * Forget every registered teleportal.
+     */
+    public void clear() {
+        worlds.clear();
+        anchors.clear();
+        index.clear();
+    }
+}
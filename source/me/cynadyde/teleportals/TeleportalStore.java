@@ -0,0 +1,479 @@
+package me.cynadyde.teleportals;
+
+import org.bukkit.Chunk;
+import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.entity.ArmorStand;
+import org.bukkit.entity.Entity;
+import org.bukkit.inventory.EntityEquipment;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.persistence.PersistentDataAdapterContext;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Keeps the state of each activated teleportal: the direction it faces, its gateway prism and its owner.
+ * Where chunks have persistent data (1.16.3 and up) the state is stored in the data of the anchor's chunk,
+ * keyed by the anchor's packed block position, and read into memory a chunk at a time.
+ * Elsewhere it is kept on an invisible armor stand marker at the anchor, as older versions of the plugin did.
+ * With chunk data, any markers left by older versions are converted and removed as their chunks load.
+ */
+public class TeleportalStore {
+
+    private final TeleportalsPlugin plugin;
+    private final boolean chunkData;
+    private final Map<UUID, Map<Long, Map<Long, Entry>>> worlds = new HashMap<>();
+    private int convertedMarkers;
+
+    /**
+     * Create a store for the given plugin, keeping teleportals in chunk data if the server supports it.
+     */
+    public TeleportalStore(@NotNull TeleportalsPlugin plugin, boolean chunkData) {
+        this.plugin = plugin;
+        this.chunkData = chunkData;
+    }
+
+    /**
+     * Check if teleportals are stored in chunk data, rather than on armor stand markers.
+     */
+    public boolean usesChunkData() {
+        return chunkData;
+    }
+
+    /**
+     * Check if a teleportal is stored at the given anchor.
+     */
+    public boolean has(@NotNull Block anchor) {
+
+        if (!chunkData) {
+            return getMarker(anchor) != null;
+        }
+        return getEntry(anchor) != null;
+    }
+
+    /**
+     * Get the direction the teleportal stored at the given anchor faces, else null.
+     */
+    public @Nullable BlockFace getFacing(@NotNull Block anchor) {
+
+        if (!chunkData) {
+            ArmorStand marker = getMarker(anchor);
+            return (marker == null) ? null : marker.getFacing();
+        }
+        Entry entry = getEntry(anchor);
+        return (entry == null) ? null : entry.facing;
+    }
+
+    /**
+     * Get a copy of the gateway prism of the teleportal stored at the given anchor, else null.
+     */
+    public @Nullable ItemStack getGatewayPrism(@NotNull Block anchor) {
+
+        if (!chunkData) {
+            ArmorStand marker = getMarker(anchor);
+            return (marker == null) ? null : Objects.requireNonNull(marker.getEquipment()).getItemInMainHand();
+        }
+        Entry entry = getEntry(anchor);
+        if (entry == null) {
+            return null;
+        }
+        // the stored item is only read back the first time it is asked for...
+        if (entry.gatewayPrism == null) {
+            entry.gatewayPrism = Utils.itemFromBytes(entry.prism);
+            if (entry.gatewayPrism == null) {
+                return null;
+            }
+        }
+        return entry.gatewayPrism.clone();
+    }
+
+    /**
+     * Replace the gateway prism of the teleportal stored at the given anchor.
+     */
+    public void setGatewayPrism(@NotNull Block anchor, @NotNull ItemStack item) {
+
+        if (!chunkData) {
+            ArmorStand marker = getMarker(anchor);
+            if (marker != null) {
+                Objects.requireNonNull(marker.getEquipment()).setItemInMainHand(item);
+            }
+            return;
+        }
+        Entry entry = getEntry(anchor);
+        if (entry != null) {
+            setGatewayPrism(entry, item);
+            write(anchor, entry);
+        }
+    }
+
+    /**
+     * Get the owner of the teleportal stored at the given anchor, else null.
+     */
+    public @Nullable String getOwner(@NotNull Block anchor) {
+
+        if (!chunkData) {
+            ArmorStand marker = getMarker(anchor);
+            return (marker == null) ? null : Utils.getDisplayName(Objects.requireNonNull(marker.getEquipment()).getHelmet());
+        }
+        Entry entry = getEntry(anchor);
+        return (entry == null) ? null : entry.owner;
+    }
+
+    /**
+     * Set the owner of the teleportal stored at the given anchor, or remove its owner if null.
+     */
+    public void setOwner(@NotNull Block anchor, @Nullable String owner) {
+
+        if (!chunkData) {
+            ArmorStand marker = getMarker(anchor);
+            if (marker != null) {
+                ItemStack helmet = new ItemStack(Material.GOLDEN_HELMET);
+                Utils.setDisplayName(helmet, owner);
+                Objects.requireNonNull(marker.getEquipment()).setHelmet(helmet);
+            }
+            return;
+        }
+        Entry entry = getEntry(anchor);
+        if (entry != null) {
+            entry.owner = owner;
+            write(anchor, entry);
+        }
+    }
+
+    /**
+     * Store a teleportal at the given anchor with the given facing and gateway prism.
+     */
+    public void create(@NotNull Block anchor, @NotNull BlockFace facing, @NotNull ItemStack gatewayPrism) {
+
+        if (!chunkData) {
+            Utils.createMarker(anchor, facing, TeleportalsPlugin.getKey("teleportal").toString(), gatewayPrism);
+            return;
+        }
+        Entry entry = new Entry(facing);
+        setGatewayPrism(entry, gatewayPrism);
+        put(anchor.getChunk(), Utils.packBlock(anchor.getX(), anchor.getY(), anchor.getZ()), entry);
+        write(anchor, entry);
+    }
+
+    /**
+     * Remove the teleportal stored at the given anchor, if there is one.
+     */
+    public void remove(@NotNull Block anchor) {
+
+        if (!chunkData) {
+            Utils.removeMarker(anchor, TeleportalsPlugin.getKey("teleportal").toString());
+            return;
+        }
+        Map<Long, Entry> entries = entries(anchor.getChunk());
+        if (entries.remove(Utils.packBlock(anchor.getX(), anchor.getY(), anchor.getZ())) != null) {
+            write(anchor, null);
+        }
+    }
+
+    /**
+     * Get every teleportal stored in the given chunk, whether or not its structure is still intact.
+     */
+    public @NotNull List<Teleportal> getAll(@NotNull Chunk chunk) {
+
+        List<Teleportal> teleportals = new ArrayList<>();
+        if (!chunkData) {
+            String markerKey = TeleportalsPlugin.getKey("teleportal").toString();
+            for (Entity entity : chunk.getEntities()) {
+
+                if (entity.isValid() && Utils.isMarker(entity, markerKey)) {
+                    teleportals.add(Teleportal.fromStore(entity.getLocation().getBlock(), entity.getFacing()));
+                }
+            }
+            return teleportals;
+        }
+        World world = chunk.getWorld();
+        for (Map.Entry<Long, Entry> entry : entries(chunk).entrySet()) {
+
+            long packed = entry.getKey();
+            Block anchor = world.getBlockAt(Utils.unpackBlockX(packed), Utils.unpackBlockY(packed), Utils.unpackBlockZ(packed));
+            teleportals.add(Teleportal.fromStore(anchor, entry.getValue().facing));
+        }
+        return teleportals;
+    }
+
+    /**
+     * Read the teleportals stored in the given chunk into memory as it loads,
+     * first converting any armor stand markers in it when using chunk data.
+     */
+    public void loadChunk(@NotNull Chunk chunk) {
+
+        if (!chunkData) {
+            plugin.getMarkerCache().loadChunk(chunk, TeleportalsPlugin.getKey("teleportal").toString());
+            return;
+        }
+        entries(chunk);
+    }
+
+    /**
+     * Forget the teleportals read from the given chunk, as it unloads.
+     */
+    public void unloadChunk(@NotNull Chunk chunk) {
+
+        if (!chunkData) {
+            plugin.getMarkerCache().unloadChunk(chunk);
+            return;
+        }
+        Map<Long, Map<Long, Entry>> chunks = worlds.get(chunk.getWorld().getUID());
+        if (chunks != null) {
+            chunks.remove(Utils.packChunk(chunk.getX(), chunk.getZ()));
+        }
+    }
+
+    /**
+     * Forget the teleportals read from the given world, as it unloads.
+     */
+    public void unloadWorld(@NotNull World world) {
+
+        if (!chunkData) {
+            plugin.getMarkerCache().unloadWorld(world);
+            return;
+        }
+        worlds.remove(world.getUID());
+    }
+
+    /**
+     * Get the number of teleportals read from chunk data into memory.
+     */
+    public int size() {
+
+        int size = 0;
+        for (Map<Long, Map<Long, Entry>> chunks : worlds.values()) {
+            for (Map<Long, Entry> entries : chunks.values()) {
+                size += entries.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Get the number of armor stand markers converted into chunk data since the plugin was enabled.
+     */
+    public int getConvertedMarkers() {
+        return convertedMarkers;
+    }
+
+    /**
+     * Forget every teleportal read into memory.
+     */
+    public void clear() {
+        plugin.getMarkerCache().clear();
+        worlds.clear();
+    }
+
+    /**
+     * Keep the whole of the given gateway prism in the given entry, or nothing if the item is not a gateway prism.
+     */
+    private void setGatewayPrism(@NotNull Entry entry, @Nullable ItemStack item) {
+
+        if (item == null || GatewayPrism.of(item) == null) {
+            entry.prism = null;
+            entry.gatewayPrism = null;
+            return;
+        }
+        entry.prism = Utils.itemToBytes(item);
+        entry.gatewayPrism = item.clone();
+    }
+
+    private @Nullable ArmorStand getMarker(@NotNull Block anchor) {
+        return Utils.getMarker(anchor, TeleportalsPlugin.getKey("teleportal").toString());
+    }
+
+    private @Nullable Entry getEntry(@NotNull Block anchor) {
+
+        long packed = Utils.packBlock(anchor.getX(), anchor.getY(), anchor.getZ());
+
+        // only look up the anchor's chunk if its teleportals have not been read yet...
+        Map<Long, Map<Long, Entry>> chunks = worlds.get(anchor.getWorld().getUID());
+        if (chunks != null) {
+            Map<Long, Entry> entries = chunks.get(Utils.packChunk(anchor.getX() >> 4, anchor.getZ() >> 4));
+            if (entries != null) {
+                return entries.get(packed);
+            }
+        }
+        return entries(anchor.getChunk()).get(packed);
+    }
+
+    /**
+     * Get the teleportals stored in the given chunk, reading them from its persistent data if not yet in memory.
+     * Any markers in the chunk are converted when it is first read.
+     */
+    private @NotNull Map<Long, Entry> entries(@NotNull Chunk chunk) {
+
+        Map<Long, Map<Long, Entry>> chunks = worlds.computeIfAbsent(chunk.getWorld().getUID(), k -> new HashMap<>());
+        long chunkKey = Utils.packChunk(chunk.getX(), chunk.getZ());
+
+        Map<Long, Entry> entries = chunks.get(chunkKey);
+        if (entries == null) {
+            entries = Collections.emptyMap();
+
+            PersistentDataContainer portals = chunk.getPersistentDataContainer()
+                    .get(TeleportalsPlugin.getKey("teleportals"), PersistentDataType.TAG_CONTAINER);
+            if (portals != null) {
+                String namespace = TeleportalsPlugin.getKey("teleportals").getNamespace();
+                for (NamespacedKey key : portals.getKeys()) {
+
+                    PersistentDataContainer data = portals.get(key, PersistentDataType.TAG_CONTAINER);
+                    if (data == null || !key.getNamespace().equals(namespace)) {
+                        continue;
+                    }
+                    try {
+                        long packed = Long.parseUnsignedLong(key.getKey(), 16);
+                        if (entries.isEmpty()) {
+                            entries = new HashMap<>();
+                        }
+                        entries.put(packed, Entry.read(data));
+                    }
+                    catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+            chunks.put(chunkKey, entries);
+
+            convertMarkers(chunk);
+            entries = chunks.get(chunkKey);
+        }
+        return entries;
+    }
+
+    /**
+     * Keep the given teleportal in memory as stored in the given chunk.
+     */
+    private void put(@NotNull Chunk chunk, long packed, @NotNull Entry entry) {
+
+        Map<Long, Entry> entries = entries(chunk);
+        if (entries.isEmpty()) {
+            entries = new HashMap<>();
+            worlds.get(chunk.getWorld().getUID()).put(Utils.packChunk(chunk.getX(), chunk.getZ()), entries);
+        }
+        entries.put(packed, entry);
+    }
+
+    /**
+     * Write the given teleportal into the persistent data of its anchor's chunk, or remove it from there if null.
+     */
+    private void write(@NotNull Block anchor, @Nullable Entry entry) {
+        write(anchor.getChunk(), Utils.packBlock(anchor.getX(), anchor.getY(), anchor.getZ()), entry);
+    }
+
+    private void write(@NotNull Chunk chunk, long packed, @Nullable Entry entry) {
+
+        NamespacedKey portalsKey = TeleportalsPlugin.getKey("teleportals");
+        PersistentDataContainer chunkData = chunk.getPersistentDataContainer();
+        PersistentDataContainer portals = chunkData.get(portalsKey, PersistentDataType.TAG_CONTAINER);
+        if (portals == null) {
+            if (entry == null) {
+                return;
+            }
+            portals = chunkData.getAdapterContext().newPersistentDataContainer();
+        }
+        NamespacedKey key = new NamespacedKey(plugin, Long.toHexString(packed));
+        if (entry == null) {
+            portals.remove(key);
+        }
+        else {
+            portals.set(key, PersistentDataType.TAG_CONTAINER, entry.write(portals.getAdapterContext()));
+        }
+        if (portals.isEmpty()) {
+            chunkData.remove(portalsKey);
+        }
+        else {
+            chunkData.set(portalsKey, PersistentDataType.TAG_CONTAINER, portals);
+        }
+    }
+
+    /**
+     * Move every armor stand marker in the given chunk into its persistent data, then remove the markers.
+     * Markers whose teleportal is no longer intact are converted too, so that the sweeper can clean them up.
+     */
+    private void convertMarkers(@NotNull Chunk chunk) {
+
+        String markerKey = TeleportalsPlugin.getKey("teleportal").toString();
+        for (Entity entity : chunk.getEntities()) {
+
+            if (!entity.isValid() || !Utils.isMarker(entity, markerKey)) {
+                continue;
+            }
+            Block anchor = entity.getLocation().getBlock();
+            EntityEquipment equipment = Objects.requireNonNull(((ArmorStand) entity).getEquipment());
+
+            Entry entry = new Entry(entity.getFacing());
+            setGatewayPrism(entry, equipment.getItemInMainHand());
+            entry.owner = Utils.getDisplayName(equipment.getHelmet());
+
+            long packed = Utils.packBlock(anchor.getX(), anchor.getY(), anchor.getZ());
+            put(chunk, packed, entry);
+            write(chunk, packed, entry);
+
+            plugin.getMarkerCache().evict(entity);
+            entity.remove();
+
+            if (convertedMarkers++ == 0) {
+                plugin.getLogger().info("Converting teleportal markers into chunk data as their chunks load.");
+            }
+        }
+    }
+
+    /**
+     * The state of one stored teleportal.
+     */
+    private static final class Entry {
+
+        private final BlockFace facing;
+        private byte[] prism;
+        private String owner;
+        private ItemStack gatewayPrism;
+
+        private Entry(@NotNull BlockFace facing) {
+            this.facing = facing;
+        }
+
+        private static @NotNull Entry read(@NotNull PersistentDataContainer data) {
+
+            Byte facingIndex = data.get(TeleportalsPlugin.getKey("facing"), PersistentDataType.BYTE);
+            BlockFace facing = (facingIndex == null || facingIndex < 0 || facingIndex >= Utils.FACES.length)
+                    ? BlockFace.NORTH : Utils.FACES[facingIndex];
+
+            Entry entry = new Entry(facing);
+            entry.prism = data.get(TeleportalsPlugin.getKey("prism"), PersistentDataType.BYTE_ARRAY);
+            entry.owner = data.get(TeleportalsPlugin.getKey("owner"), PersistentDataType.STRING);
+            return entry;
+        }
+
+        private @NotNull PersistentDataContainer write(@NotNull PersistentDataAdapterContext context) {
+
+            PersistentDataContainer data = context.newPersistentDataContainer();
+            int facingIndex = 0;
+            for (int i = 0; i < Utils.FACES.length; i++) {
+                if (Utils.FACES[i] == facing) {
+                    facingIndex = i;
+                }
+            }
+            data.set(TeleportalsPlugin.getKey("facing"), PersistentDataType.BYTE, (byte) facingIndex);
+            if (prism != null) {
+                data.set(TeleportalsPlugin.getKey("prism"), PersistentDataType.BYTE_ARRAY, prism);
+            }
+            if (owner != null) {
+                data.set(TeleportalsPlugin.getKey("owner"), PersistentDataType.STRING, owner);
+            }
+            return data;
+        }
+    }
+}
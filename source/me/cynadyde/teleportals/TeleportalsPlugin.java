@@ -1,8 +1,10 @@
 package me.cynadyde.teleportals;
 
 import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
 import org.bukkit.GameMode;
 import org.bukkit.Keyed;
+import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.NamespacedKey;
 import org.bukkit.World;
@@ -17,29 +19,50 @@ import org.bukkit.entity.EnderPearl;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.EntityType;
 import org.bukkit.entity.Player;
+import org.bukkit.event.Event;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.Action;
 import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockExplodeEvent;
+import org.bukkit.event.block.BlockFadeEvent;
+import org.bukkit.event.block.BlockFormEvent;
+import org.bukkit.event.block.BlockFromToEvent;
+import org.bukkit.event.block.BlockPistonExtendEvent;
+import org.bukkit.event.block.BlockPistonRetractEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.entity.EntityChangeBlockEvent;
+import org.bukkit.event.entity.EntityEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
 import org.bukkit.event.entity.ProjectileHitEvent;
 import org.bukkit.event.entity.ProjectileLaunchEvent;
 import org.bukkit.event.inventory.PrepareItemCraftEvent;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.event.player.PlayerTeleportEvent;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.Recipe;
 import org.bukkit.inventory.ShapedRecipe;
 import org.bukkit.plugin.PluginDescriptionFile;
 import org.bukkit.plugin.java.JavaPlugin;
-import org.bukkit.util.BlockIterator;
+import org.bukkit.plugin.java.JavaPluginLoader;
 import org.bukkit.util.Vector;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 
 /**
@@ -47,16 +70,89 @@ import java.util.*;
  */
 public class TeleportalsPlugin extends JavaPlugin implements Listener {
 
+    /**
+     * How many chunks away from a teleportal an ender pearl can be launched and still be tracked.
+     */
+    private static final int PEARL_REACH_CHUNKS = 8;
+
+    /**
+     * Half the width of an ender pearl's bounding box.
+     */
+    private static final double PEARL_HALF_EXTENT = 0.125;
+
+    /**
+     * How long to wait for the metadata file to be written when the plugin is disabled.
+     */
+    private static final long METADATA_SAVE_TIMEOUT_MILLIS = 5000L;
+
+    /**
+     * How long a player's resolved group policy is trusted before it is resolved again,
+     * in case their permissions changed without them rejoining or changing worlds.
+     */
+    private static final long GROUP_POLICY_LIFETIME_MILLIS = 60_000L;
+
+    /**
+     * How often, in ticks, rate limiter entries of players whose budgets are full again are forgotten,
+     * along with the transit cooldowns of entities that have passed.
+     */
+    private static final long RATE_LIMIT_EXPIRY_TICKS = 1200L;
+
+    /**
+     * The radius searched by the near command when none is given, and the most teleportals it shows.
+     */
+    private static final int NEAR_DEFAULT_RADIUS = 256;
+    private static final int NEAR_LIMIT = 10;
+
+    /**
+     * How many teleportals are shown on each page of the list command.
+     */
+    private static final int LIST_PAGE_SIZE = 10;
+
     private static TeleportalsPlugin instance;
 
     private final File metadataFile = new File(getDataFolder(), "metadata.yml");
+    private final File metricsFile = new File(getDataFolder(), "teleportals.prom");
     private final Map<String, NamespacedKey> namespacedKeys = new HashMap<>();
-    private final Map<UUID, Long> interactionCooldowns = new HashMap<>();
-    private final Set<EnderPearl> launchedPearls = new HashSet<>();
+    private final RateLimiter rateLimiter = new RateLimiter();
+    private final Map<UUID, GroupPolicy> groupPolicies = new HashMap<>();
+    private final PearlTracker trackedPearls = new PearlTracker();
+    private final PearlRaycast pearlRaycast = new PearlRaycast();
+    private final Location pearlLocation = new Location(null, 0, 0, 0);
+    private final TeleportalRegistry registry = new TeleportalRegistry();
+    private final MarkerCache markerCache = new MarkerCache();
+    private final MarkerSweeper markerSweeper = new MarkerSweeper(this);
+    private final DamageTracker damageTracker = new DamageTracker(this);
+    private final EntityTransit entityTransit = new EntityTransit(this);
+    private final EffectsScheduler effects = new EffectsScheduler();
+    private final Metrics metrics = new Metrics();
 
     private PluginCommand pluginCmd;
     private YamlConfiguration metadataYaml;
+    private MetadataWriter metadataWriter;
+    private PlatformAdapter platform;
+    private TeleportalStore store;
+    private ChunkScanner chunkScanner;
+    private ChunkTickets chunkTickets;
+    private ChunkPreloader chunkPreloader;
+    private ChunkKeepalive chunkKeepalive;
+    private volatile Settings settings;
     private boolean isEndGatewaySolid;
+    private long currentTick;
+
+    /**
+     * Create the plugin, as done by the server's plugin loader.
+     */
+    public TeleportalsPlugin() {
+        super();
+    }
+
+    /**
+     * Create the plugin outside of a server's plugin loader, such as in benchmarks.
+     */
+    protected TeleportalsPlugin(@NotNull JavaPluginLoader loader, @NotNull PluginDescriptionFile description,
+                                @NotNull File dataFolder, @NotNull File file) {
+        super(loader, description, dataFolder, file);
+    }
 
     /**
      * Get the instance of this enabled plugin.
@@ -84,6 +180,62 @@ public class TeleportalsPlugin extends JavaPlugin implements Listener {
         return key;
     }
 
+    /**
+     * Get the registry of activated teleportals in loaded chunks.
+     */
+    public @NotNull TeleportalRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Get the cache of armor stand markers in loaded chunks.
+     */
+    public @NotNull MarkerCache getMarkerCache() {
+        return markerCache;
+    }
+
+    /**
+     * Get the store holding the state of activated teleportals.
+     */
+    public @NotNull TeleportalStore getStore() {
+        return store;
+    }
+
+    /**
+     * Get the adapter for APIs only available on some server platforms.
+     */
+    public @NotNull PlatformAdapter getPlatform() {
+        return platform;
+    }
+
+    /**
+     * Get the chunk tickets held on busy teleportal destinations.
+     */
+    public @NotNull ChunkKeepalive getChunkKeepalive() {
+        return chunkKeepalive;
+    }
+
+    /**
+     * Get the scheduler that plays the plugin's particle and sound effects.
+     */
+    public @NotNull EffectsScheduler getEffects() {
+        return effects;
+    }
+
+    /**
+     * Get the plugin's timing and throughput metrics.
+     */
+    public @NotNull Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Get the settings compiled from the config when it was last reloaded.
+     */
+    public @NotNull Settings getSettings() {
+        return settings;
+    }
+
     /**
      * Reloads the plugin's configuration settings, schedules the
      * metadata autosaver if enabled, and creates the gateway prism recipe.
@@ -92,20 +244,30 @@ public class TeleportalsPlugin extends JavaPlugin implements Listener {
 
         saveDefaultConfig();
         reloadConfig();
+        settings = Settings.compile(getConfig(), getLogger());
+        groupPolicies.clear();
 
         getServer().getScheduler().cancelTasks(this);
-        getServer().getScheduler().scheduleSyncRepeatingTask(this, this::trackEnderpearls, 0L, 1L);
+        getServer().getScheduler().scheduleSyncRepeatingTask(this, this::tick, 0L, 1L);
 
-        if (getConfig().getBoolean("metadata.autosave.enabled")) {
-            int interval = Math.max(60, getConfig().getInt("metadata.autosave.interval")) * 20;
+        if (settings.isAutosaveEnabled()) {
+            int interval = settings.getAutosaveIntervalTicks();
             getServer().getScheduler().scheduleSyncRepeatingTask(this, this::saveDataYaml, interval, interval);
         }
 
+        metrics.unregisterMBeans();
+        if (settings.isMetricsJmxEnabled()) {
+            metrics.registerMBeans(getLogger());
+        }
+        if (settings.isMetricsPrometheusEnabled()) {
+            int interval = settings.getMetricsPrometheusIntervalTicks();
+            getServer().getScheduler().scheduleSyncRepeatingTask(this, this::writeMetricsFile, interval, interval);
+        }
+
         Recipe recipe;
         NamespacedKey recipeKey = TeleportalsPlugin.getKey("gateway_prism");
         {
-            int amount = Math.max(1, getConfig().getInt("gateway-prism.amount"));
-            ItemStack item = makeGatewayPrism(amount);
+            ItemStack item = makeGatewayPrism(settings.getGatewayPrismAmount());
 
             try {
                 recipe = Utils.createRecipe(recipeKey, item, getConfig(), "gateway-prism");
@@ -148,6 +310,33 @@ public class TeleportalsPlugin extends JavaPlugin implements Listener {
             pluginCmd.setTabCompleter(this);
         }
         getServer().getPluginManager().registerEvents(this, this);
+        registerMarkerRemovalListener();
+        metadataWriter = new MetadataWriter(metadataFile, getLogger());
+        platform = new PlatformAdapter(getLogger());
+        store = new TeleportalStore(this, platform.hasChunkData());
+        chunkScanner = new ChunkScanner(registry, store);
+        chunkTickets = new ChunkTickets(this);
+        chunkPreloader = new ChunkPreloader(chunkTickets, registry, platform);
+        chunkKeepalive = new ChunkKeepalive(chunkTickets);
+
+        metrics.addGauge("tracked_pearls", trackedPearls::size);
+        metrics.addGauge("registered_portals", registry::size);
+        metrics.addGauge("cached_markers", markerCache::size);
+        metrics.addGauge("stored_portals", store::size);
+        metrics.addGauge("converted_markers", store::getConvertedMarkers);
+        metrics.addGauge("held_chunk_tickets", chunkKeepalive::getTicketCount);
+        metrics.addGauge("preloaded_chunk_tickets", chunkPreloader::getTicketCount);
+        metrics.addGauge("rate_limited_players", rateLimiter::size);
+        metrics.addGauge("queued_chunk_scans", chunkScanner::size);
+        metrics.addGauge("orphans_swept", markerSweeper::getTotalOrphans);
+        metrics.addGauge("damaged_anchors", damageTracker::size);
+        metrics.addGauge("entity_transits", entityTransit::getTotalTransits);
+
+        for (World world : getServer().getWorlds()) {
+            for (Chunk chunk : world.getLoadedChunks()) {
+                chunkScanner.queue(chunk);
+            }
+        }
 
         refresh();
         reloadDataYaml();
@@ -160,7 +349,21 @@ public class TeleportalsPlugin extends JavaPlugin implements Listener {
         getServer().getScheduler().cancelTasks(this);
 
         saveDataYaml();
-        interactionCooldowns.clear();
+        metadataWriter.shutdown(METADATA_SAVE_TIMEOUT_MILLIS);
+        metrics.unregisterMBeans();
+        rateLimiter.clear();
+        chunkPreloader.clear();
+        chunkKeepalive.clear();
+        chunkTickets.clear();
+        chunkScanner.clear();
+        markerSweeper.clear();
+        damageTracker.clear();
+        entityTransit.clear();
+        effects.clear();
+        groupPolicies.clear();
+        registry.clear();
+        store.clear();
+        trackedPearls.clear();
     }
 
     @Override
@@ -197,6 +400,71 @@ public class TeleportalsPlugin extends JavaPlugin implements Listener {
                 getConfig().options().copyDefaults(true);
                 return true;
             }
+            // stats sub-command...
+            else if (args[0].equalsIgnoreCase("stats")) {
+                if (!sender.hasPermission("teleportals.admin.stats")) {
+                    sendMsg(sender, "no-perms-cmd");
+                    return false;
+                }
+                sendStats(sender);
+                return true;
+            }
+            // near sub-command...
+            else if (args[0].equalsIgnoreCase("near")) {
+                if (!sender.hasPermission("teleportals.admin.find")) {
+                    sendMsg(sender, "no-perms-cmd");
+                    return false;
+                }
+                if (!(sender instanceof Player)) {
+                    sendMsg(sender, "not-player");
+                    return false;
+                }
+                int radius = NEAR_DEFAULT_RADIUS;
+                if (args.length > 1) {
+                    try {
+                        radius = Integer.parseInt(args[1]);
+                    }
+                    catch (NumberFormatException ignored) {
+                        radius = -1;
+                    }
+                    if (radius <= 0) {
+                        sendMsg(sender, "invalid-arg", args[1]);
+                        return false;
+                    }
+                }
+                sendNearby((Player) sender, radius);
+                return true;
+            }
+            // list sub-command...
+            else if (args[0].equalsIgnoreCase("list")) {
+                if (!sender.hasPermission("teleportals.admin.find")) {
+                    sendMsg(sender, "no-perms-cmd");
+                    return false;
+                }
+                if (args.length < 2) {
+                    sendMsg(sender, "missing-arg", "world");
+                    return false;
+                }
+                World world = getServer().getWorld(args[1]);
+                if (world == null) {
+                    sendMsg(sender, "unknown-world", args[1]);
+                    return false;
+                }
+                int page = 1;
+                if (args.length > 2) {
+                    try {
+                        page = Integer.parseInt(args[2]);
+                    }
+                    catch (NumberFormatException ignored) {
+                        page = -1;
+                    }
+                }
+                if (!sendList(sender, world, page)) {
+                    sendMsg(sender, "invalid-arg", args[2]);
+                    return false;
+                }
+                return true;
+            }
             // unknown sub-command given...
             else {
                 String cmd = "/" + alias + " " + String.join(" ", args);
@@ -223,6 +491,28 @@ public class TeleportalsPlugin extends JavaPlugin implements Listener {
                         results.add("reloadconfig");
                     }
                 }
+                if (sender.hasPermission("teleportals.admin.stats")) {
+                    if ("stats".startsWith(args[0])) {
+                        results.add("stats");
+                    }
+                }
+                if (sender.hasPermission("teleportals.admin.find")) {
+                    if ("near".startsWith(args[0])) {
+                        results.add("near");
+                    }
+                    if ("list".startsWith(args[0])) {
+                        results.add("list");
+                    }
+                }
+            }
+            else if (args.length == 2 && args[0].equalsIgnoreCase("list")) {
+                if (sender.hasPermission("teleportals.admin.find")) {
+                    for (World world : getServer().getWorlds()) {
+                        if (world.getName().startsWith(args[1])) {
+                            results.add(world.getName());
+                        }
+                    }
+                }
             }
         }
         return results;
@@ -251,35 +541,40 @@ public class TeleportalsPlugin extends JavaPlugin implements Listener {
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onPlayerInteract(@NotNull PlayerInteractEvent event) {
 
+        long start = System.nanoTime();
+        try {
+            handlePlayerInteract(event);
+        }
+        finally {
+            metrics.record(Metrics.Timing.PLAYER_INTERACT, start);
+        }
+    }
+
+    private void handlePlayerInteract(@NotNull PlayerInteractEvent event) {
+
         if (event.getAction().equals(Action.RIGHT_CLICK_BLOCK)) {
             Block block = event.getClickedBlock();
             if (block != null && (block.getType() == Material.ENDER_CHEST || block.getType() == Material.END_GATEWAY)) {
 
-                // make sure the cooldown for this player is over...
-                if (!interactionCooldowns.containsKey(event.getPlayer().getUniqueId())) {
-                    interactionCooldowns.put(event.getPlayer().getUniqueId(), System.currentTimeMillis());
-                }
-                else {
-                    Long lastInteract = interactionCooldowns.get(event.getPlayer().getUniqueId());
-                    if ((System.currentTimeMillis() - lastInteract) >= 500L) {
-                        interactionCooldowns.remove(event.getPlayer().getUniqueId());
-                    }
-                    else {
-                        return;
-                    }
-                }
                 ItemStack usedItem = event.getPlayer().getInventory().getItemInMainHand();
-                if (Utils.hasLoreTag(usedItem, TeleportalsPlugin.getKey("gateway_prism").toString())) {
+                GatewayPrism gatewayPrism = GatewayPrism.of(usedItem);
+                if (gatewayPrism != null) {
 
                     Teleportal teleportal = Teleportal.getFromStruct(block);
                     if (teleportal != null) {
 
+                        // make sure the player is not interacting too often...
+                        RateLimiter.Action action = event.getPlayer().isSneaking()
+                                ? RateLimiter.Action.LINK : RateLimiter.Action.ACTIVATE;
+                        if (!tryRateLimitedAction(event.getPlayer(), action)) {
+                            return;
+                        }
                         if (event.getPlayer().isSneaking()) {
                             if (!event.getPlayer().hasPermission("teleportals.player.link")) {
                                 sendMsg(event.getPlayer(), "no-perms-link");
                                 return;
                             }
-                            teleportal.linkGatewayPrism(usedItem);
+                            teleportal.linkGatewayPrism(gatewayPrism);
                         }
                         else {
                             // make sure the player can activate a teleportal
@@ -298,18 +593,17 @@ public class TeleportalsPlugin extends JavaPlugin implements Listener {
                                 return;
                             }
                             if (!isCrossWorldActivationAllowed()) {
-                                String exitKey = Utils.getLoreData(usedItem, "link");
-                                String[] exitKeyTokens = exitKey.split(",");
-                                String exitWorldName = exitKeyTokens.length >= 1 ? exitKeyTokens[0] : "";
-                                if (!block.getWorld().getName().equals(exitWorldName)) {
+                                BlockKey exitKey = gatewayPrism.getLink();
+                                if (exitKey != null && !exitKey.getWorldId().equals(block.getWorld().getUID())) {
+                                    World exitWorld = exitKey.getWorld();
                                     sendMsg(event.getPlayer(), "cant-cross-worlds",
                                             block.getWorld().getName(),
-                                            exitWorldName);
+                                            (exitWorld == null) ? exitKey.getWorldId().toString() : exitWorld.getName());
                                     return;
                                 }
                             }
 
-                            if (teleportal.activate(usedItem)) {
+                            if (teleportal.activate(gatewayPrism)) {
                                 augActivePortalCount(event.getPlayer().getUniqueId(), 1);
                                 if (event.getPlayer().getGameMode() != GameMode.CREATIVE) {
                                     usedItem.setAmount(usedItem.getAmount() - 1);
@@ -329,15 +623,204 @@ public class TeleportalsPlugin extends JavaPlugin implements Listener {
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onBlockBreak(@NotNull BlockBreakEvent event) {
 
+        long start = System.nanoTime();
+        Block block = event.getBlock();
+        registry.invalidateExitsNear(block.getWorld(), block.getX(), block.getY(), block.getZ());
+
         Teleportal teleportal = Teleportal.getFromStruct(event.getBlock());
         if (teleportal != null) {
-            teleportal.deactivate(getConfig().getBoolean("gateway-prism.reusable", true));
+            deactivateTeleportal(teleportal);
+        }
+        metrics.record(Metrics.Timing.BLOCK_BREAK, start);
+    }
 
-            String name = teleportal.getPortalName();
-            if (name != null) {
-                augActivePortalCount(UUID.fromString(name), -1);
-            }
+    /**
+     * Mark the exit sides of teleportals next to a placed block as changed.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPlace(@NotNull BlockPlaceEvent event) {
+
+        Block block = event.getBlockPlaced();
+        registry.invalidateExitsNear(block.getWorld(), block.getX(), block.getY(), block.getZ());
+    }
+
+    /**
+     * Note a block formed by the world, such as snow, ice or obsidian, as it may change a nearby teleportal.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockForm(@NotNull BlockFormEvent event) {
+        noteBlockChange(event.getBlock());
+    }
+
+    /**
+     * Note a block faded by the world, such as melting snow or ice, as it may change a nearby teleportal.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockFade(@NotNull BlockFadeEvent event) {
+        noteBlockChange(event.getBlock());
+    }
+
+    /**
+     * Note a block changed by an entity, such as a falling block starting to fall or landing,
+     * as it may change a nearby teleportal.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityChangeBlock(@NotNull EntityChangeBlockEvent event) {
+        noteBlockChange(event.getBlock());
+    }
+
+    /**
+     * Note the teleportals an entity's explosion may have destroyed, to be checked at the end of the tick.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityExplode(@NotNull EntityExplodeEvent event) {
+        damageTracker.addAll(event.blockList());
+    }
+
+    /**
+     * Note the teleportals a block's explosion may have destroyed, to be checked at the end of the tick.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockExplode(@NotNull BlockExplodeEvent event) {
+        damageTracker.addAll(event.blockList());
+    }
+
+    /**
+     * Note the teleportals an extending piston may have broken, to be checked at the end of the tick.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPistonExtend(@NotNull BlockPistonExtendEvent event) {
+        notePistonDamage(event.getBlock(), event.getDirection(), event.getBlocks());
+    }
+
+    /**
+     * Note the teleportals a retracting piston may have broken, to be checked at the end of the tick.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPistonRetract(@NotNull BlockPistonRetractEvent event) {
+        notePistonDamage(event.getBlock(), event.getDirection(), event.getBlocks());
+    }
+
+    /**
+     * Note the teleportals flowing water or lava may have broken, to be checked at the end of the tick.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockFromTo(@NotNull BlockFromToEvent event) {
+        noteBlockChange(event.getToBlock());
+    }
+
+    /**
+     * Note both the blocks moved by a piston and the blocks they are moved into.
+     */
+    private void notePistonDamage(@NotNull Block piston, @NotNull BlockFace direction, @NotNull List<Block> moved) {
+
+        noteBlockChange(piston.getRelative(direction));
+        for (Block block : moved) {
+            noteBlockChange(block);
+            noteBlockChange(block.getWorld(), block.getX() + direction.getModX(),
+                    block.getY() + direction.getModY(), block.getZ() + direction.getModZ());
+        }
+    }
+
+    /**
+     * Mark the exit sides of teleportals next to the given changed block as changed,
+     * and note the teleportals it may have broken, to be checked at the end of the tick.
+     */
+    private void noteBlockChange(@NotNull Block block) {
+        noteBlockChange(block.getWorld(), block.getX(), block.getY(), block.getZ());
+    }
+
+    private void noteBlockChange(@NotNull World world, int x, int y, int z) {
+        registry.invalidateExitsNear(world, x, y, z);
+        damageTracker.add(world, x, y, z);
+    }
+
+    /**
+     * Resolve a player's group policy as they join.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerJoin(@NotNull PlayerJoinEvent event) {
+        invalidateGroupPolicy(event.getPlayer().getUniqueId());
+        getGroupPolicy(event.getPlayer());
+    }
+
+    /**
+     * Forget a player's group policy and rate limits as they quit.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(@NotNull PlayerQuitEvent event) {
+        invalidateGroupPolicy(event.getPlayer().getUniqueId());
+        rateLimiter.remove(event.getPlayer().getUniqueId());
+    }
+
+    /**
+     * Forget a player's group policy as they change worlds, since permissions are often per-world.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerChangedWorld(@NotNull PlayerChangedWorldEvent event) {
+        invalidateGroupPolicy(event.getPlayer().getUniqueId());
+    }
+
+    /**
+     * Queue a chunk to have its stored teleportals read and its activated teleportals registered as it loads.
+     * Newly generated chunks have no teleportals, so they are read straight away.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkLoad(@NotNull ChunkLoadEvent event) {
+        if (event.isNewChunk()) {
+            store.loadChunk(event.getChunk());
+        }
+        else {
+            chunkScanner.queue(event.getChunk());
+        }
+    }
+
+    /**
+     * Forget the stored teleportals, activated teleportals and tracked ender pearls in a chunk as it unloads.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkUnload(@NotNull ChunkUnloadEvent event) {
+        chunkScanner.unloadChunk(event.getChunk());
+        registry.unloadChunk(event.getChunk());
+        store.unloadChunk(event.getChunk());
+        trackedPearls.unloadChunk(event.getChunk());
+    }
+
+    /**
+     * Forget the stored teleportals, activated teleportals, tracked ender pearls and preload requests in a world as it unloads.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onWorldUnload(@NotNull WorldUnloadEvent event) {
+        chunkScanner.unloadWorld(event.getWorld());
+        damageTracker.unloadWorld(event.getWorld());
+        registry.unloadWorld(event.getWorld());
+        store.unloadWorld(event.getWorld());
+        trackedPearls.unloadWorld(event.getWorld());
+        chunkPreloader.unloadWorld(event.getWorld());
+        chunkKeepalive.unloadWorld(event.getWorld());
+        chunkTickets.unloadWorld(event.getWorld());
+    }
+
+    /**
+     * Evict markers from the marker cache as they are removed from their world.
+     * This relies on an event only available on Paper servers, elsewhere stale
+     * cache entries are instead evicted when they are next looked up.
+     */
+    private void registerMarkerRemovalListener() {
+
+        Class<? extends Event> eventClass;
+        try {
+            eventClass = Class.forName("com.destroystokyo.paper.event.entity.EntityRemoveFromWorldEvent")
+                    .asSubclass(Event.class);
+        }
+        catch (ClassNotFoundException | ClassCastException ex) {
+            return;
         }
+        getServer().getPluginManager().registerEvent(eventClass, this, EventPriority.MONITOR, (listener, event) -> {
+            if (event instanceof EntityEvent && ((EntityEvent) event).getEntityType() == EntityType.ARMOR_STAND) {
+                markerCache.evict(((EntityEvent) event).getEntity());
+            }
+        }, this);
     }
 
     /**
@@ -353,6 +836,7 @@ public class TeleportalsPlugin extends JavaPlugin implements Listener {
 
     /**
      * Track ender pearls potentially entering a teleportal's end gateway.
+     * Pearls are only tracked if a teleportal is registered within their reach.
      */
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onProjectileLaunch(ProjectileLaunchEvent event) {
@@ -361,7 +845,12 @@ public class TeleportalsPlugin extends JavaPlugin implements Listener {
             if (event.getEntity().getType() == EntityType.ENDER_PEARL) {
                 EnderPearl pearl = (EnderPearl) event.getEntity();
                 if (pearl.getShooter() instanceof Entity) {
-                    launchedPearls.add(pearl);
+                    Location loc = pearl.getLocation();
+                    if (registry.hasAnyBetween(pearl.getWorld(),
+                            (loc.getBlockX() >> 4) - PEARL_REACH_CHUNKS, (loc.getBlockZ() >> 4) - PEARL_REACH_CHUNKS,
+                            (loc.getBlockX() >> 4) + PEARL_REACH_CHUNKS, (loc.getBlockZ() >> 4) + PEARL_REACH_CHUNKS)) {
+                        trackedPearls.add(pearl);
+                    }
                 }
             }
         }
@@ -389,76 +878,103 @@ public class TeleportalsPlugin extends JavaPlugin implements Listener {
                                 sendMsg(shooter, "no-perms-use");
                                 return;
                             }
+                            if (!tryRateLimitedAction((Player) shooter, RateLimiter.Action.TELEPORT)) {
+                                return;
+                            }
                         }
-                        boolean tryNonOccludedExit = getConfig().getBoolean("teleportal.try-non-occluded-exit", true);
-                        boolean failOnFullyOccludedExit = getConfig().getBoolean("teleportal.fail-on-fully-occluded-exit", false);
+                        Settings settings = this.settings;
 
-                        if (!teleportal.teleport(shooter, event.getHitBlockFace(), tryNonOccludedExit, failOnFullyOccludedExit)) {
+                        teleportal.teleport(shooter, event.getHitBlockFace(),
+                                settings.isTryNonOccludedExit(), settings.isFailOnFullyOccludedExit()).thenAccept(success -> {
 
                             if (shooter instanceof Player) {
-                                int damageAmount = getConfig().getInt("teleportal.usage-fail-damage", 1);
-                                if (damageAmount > 0) {
-                                    ((Player) shooter).damage(damageAmount);
+                                if (success) {
+                                    ((Player) shooter).discoverRecipe(TeleportalsPlugin.getKey("gateway_prism"));
+                                }
+                                else {
+                                    int damageAmount = settings.getUsageFailDamage();
+                                    if (damageAmount > 0) {
+                                        ((Player) shooter).damage(damageAmount);
+                                    }
                                 }
                             }
-                        }
+                        });
                     }
                 }
             }
         }
     }
 
+    /**
+     * Run the plugin's per-tick work.
+     */
+    private void tick() {
+
+        currentTick++;
+
+        // settle the damage done last tick before any pearls can enter a broken teleportal...
+        long start = System.nanoTime();
+        damageTracker.flush();
+        metrics.record(Metrics.Timing.CHECK_DAMAGE, start);
+
+        start = System.nanoTime();
+        trackEnderpearls();
+        metrics.record(Metrics.Timing.TRACK_PEARLS, start);
+
+        if (currentTick % 20 == 0) {
+            metrics.sampleGauges();
+        }
+        entityTransit.tick(currentTick, settings);
+        chunkScanner.tick(settings);
+        markerSweeper.tick(currentTick, settings);
+        chunkPreloader.tick(currentTick, settings, getServer().getOnlinePlayers());
+        chunkKeepalive.tick(currentTick, settings);
+        effects.flush(settings);
+
+        if (currentTick % RATE_LIMIT_EXPIRY_TICKS == 0) {
+            rateLimiter.expire(currentTick);
+            entityTransit.expire(currentTick);
+        }
+    }
+
     /**
      * Manually fire a projectile collision event when an ender pearl collides with a teleportal's end gateway
      */
     public void trackEnderpearls() {
 
-        Set<EnderPearl> pearlsToTrack = new HashSet<>(launchedPearls);
-        for (EnderPearl pearl : pearlsToTrack) {
-            if (pearl.isValid()) {
-                Block hitBlock;
-
-                findCollision:
-                {
-                    Vector start = pearl.getLocation().toVector();
-                    Vector finish = pearl.getVelocity().add(start);
-
-                    if (start.toBlockVector().equals(finish.toBlockVector())) {
-                        Block block = pearl.getLocation().getBlock();
-                        if (block.getType() == Material.END_GATEWAY) {
-                            hitBlock = block;
-                            break findCollision;
-                        }
-                    }
-                    else {
-                        BlockIterator ray = new BlockIterator(
-                                pearl.getWorld(),
-                                start,
-                                pearl.getVelocity().normalize(),
-                                0,
-                                (int) Math.ceil(pearl.getVelocity().length()));
-                        while (ray.hasNext()) {
-                            Block block = ray.next();
-                            if (block.getType() == Material.END_GATEWAY) {
-                                hitBlock = block;
-                                break findCollision;
-                            }
-                        }
-                    }
-                    continue;
-                }
-                if (hitBlock.getType() == Material.END_GATEWAY && Teleportal.getFromStruct(hitBlock) != null) {
-
-                    // TODO find collided face instead of using the ender pearl's yaw
-                    float yaw = 0 - pearl.getLocation().getYaw();
-                    BlockFace hitFace = Utils.yawToBlockFace(yaw).getOppositeFace();
+        for (int i = trackedPearls.size() - 1; i >= 0; i--) {
+            EnderPearl pearl = trackedPearls.get(i);
+            if (!pearl.isValid()) {
+                trackedPearls.removeAt(i);
+                continue;
+            }
+            Location loc = pearl.getLocation(pearlLocation);
+            Vector velocity = pearl.getVelocity();
+
+            // only sweep the pearl if it passes through a chunk with a teleportal this tick...
+            int fromChunkX = loc.getBlockX() >> 4;
+            int fromChunkZ = loc.getBlockZ() >> 4;
+            int toChunkX = (int) Math.floor(loc.getX() + velocity.getX()) >> 4;
+            int toChunkZ = (int) Math.floor(loc.getZ() + velocity.getZ()) >> 4;
+            if (!registry.hasAnyBetween(pearl.getWorld(),
+                    Math.min(fromChunkX, toChunkX), Math.min(fromChunkZ, toChunkZ),
+                    Math.max(fromChunkX, toChunkX), Math.max(fromChunkZ, toChunkZ))) {
+                continue;
+            }
+            if (!pearlRaycast.cast(registry, pearl.getWorld(),
+                    loc.getX(), loc.getY() + PEARL_HALF_EXTENT, loc.getZ(),
+                    velocity.getX(), velocity.getY(), velocity.getZ(),
+                    PEARL_HALF_EXTENT)) {
+                continue;
+            }
+            Block hitBlock = pearl.getWorld().getBlockAt(pearlRaycast.getHitX(), pearlRaycast.getHitY(), pearlRaycast.getHitZ());
+            if (hitBlock.getType() == Material.END_GATEWAY) {
 
-                    ProjectileHitEvent event = new ProjectileHitEvent(pearl, null, hitBlock, hitFace);
-                    getServer().getPluginManager().callEvent(event);
-                    pearl.remove();
-                }
+                trackedPearls.removeAt(i);
+                ProjectileHitEvent event = new ProjectileHitEvent(pearl, null, hitBlock, pearlRaycast.getHitFace());
+                getServer().getPluginManager().callEvent(event);
+                pearl.remove();
             }
-            launchedPearls.remove(pearl);
         }
     }
 
@@ -481,59 +997,95 @@ public class TeleportalsPlugin extends JavaPlugin implements Listener {
         }
         metadataYaml = YamlConfiguration.loadConfiguration(metadataFile);
 
-        if (!getConfig().getBoolean("metadata.track-active-portal-counts", false)) {
+        if (!settings.isTrackActivePortalCounts()) {
             metadataYaml.set("player-active-portal-counts", null);
         }
     }
 
     /**
      * Save metadata to file if any was collected, else remove the file if it exists.
+     * The metadata is snapshot immediately, but written to file in the background.
      */
     public void saveDataYaml() {
 
+        long start = System.nanoTime();
         if (anyMetadataEnabled()) {
-            try {
-                metadataYaml.save(metadataFile);
-            }
-            catch (IOException ex) {
-                getLogger().severe("Unable to save to the metadata.yml file: " + ex.getMessage());
-            }
+            metadataWriter.save(metadataYaml);
         }
         else {
+            metadataWriter.delete();
+        }
+        metrics.record(Metrics.Timing.SAVE_METADATA, start);
+    }
+
+    /**
+     * Write the plugin's metrics to a Prometheus text file in the plugin's folder.
+     * The metrics are formatted immediately, but written to file in the background,
+     * through a temporary file so that a scraper never reads a partial file.
+     */
+    public void writeMetricsFile() {
+
+        String text = metrics.toPrometheus();
+        getServer().getScheduler().runTaskAsynchronously(this, () -> {
+            Path target = metricsFile.toPath();
+            Path temp = target.resolveSibling(metricsFile.getName() + ".tmp");
             try {
-                Files.deleteIfExists(metadataFile.toPath());
+                Files.createDirectories(target.getParent());
+                Files.write(temp, text.getBytes(StandardCharsets.UTF_8));
+                try {
+                    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                }
+                catch (AtomicMoveNotSupportedException ex) {
+                    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+                }
             }
             catch (IOException ex) {
-                getLogger().warning("Unable to remove the metadata.yml file: " + ex.getMessage());
+                getLogger().warning("Unable to write the teleportals.prom file: " + ex.getMessage());
             }
-        }
+        });
     }
 
     /**
      * Test if any metadata options are enabled in the config.
      */
     public boolean anyMetadataEnabled() {
-
-        boolean result = false;
-        ConfigurationSection ymlMetadata = getConfig().getConfigurationSection("metadata");
-        if (ymlMetadata != null) {
-            for (String key : ymlMetadata.getKeys(false)) {
-                if (ymlMetadata.isBoolean(key) && ymlMetadata.getBoolean(key)) {
-                    result = true;
-                    break;
-                }
-            }
-        }
-        return result;
+        return settings.isAnyMetadataEnabled();
     }
 
     /**
      * Get the plugin's chat tag.
      */
     public @NotNull String getTag() {
+        return settings.getTag();
+    }
 
-        String tag = getConfig().getString("messages.tag");
-        return (tag == null) ? "" : Utils.format(tag);
+    /**
+     * Get the player's group policy, resolving and caching it if needed.
+     */
+    public @NotNull GroupPolicy getGroupPolicy(@NotNull Player player) {
+
+        GroupPolicy policy = groupPolicies.get(player.getUniqueId());
+        if (policy == null || policy.isOlderThan(GROUP_POLICY_LIFETIME_MILLIS)) {
+            policy = GroupPolicy.resolve(player, settings.getGroups());
+            groupPolicies.put(player.getUniqueId(), policy);
+        }
+        return policy;
+    }
+
+    /**
+     * Forget the cached group policy of the player with the given UUID,
+     * so that it is resolved again the next time it is needed.
+     */
+    public void invalidateGroupPolicy(@NotNull UUID uuid) {
+        groupPolicies.remove(uuid);
+    }
+
+    /**
+     * Try to take a token from the player's rate limit budget for the given action.
+     * Returns false if the player has performed the action too often recently.
+     */
+    public boolean tryRateLimitedAction(@NotNull Player player, @NotNull RateLimiter.Action action) {
+        return rateLimiter.tryAcquire(player.getUniqueId(), action, settings.getRateLimit(action), currentTick);
     }
 
     /**
@@ -542,22 +1094,10 @@ public class TeleportalsPlugin extends JavaPlugin implements Listener {
      */
     public Integer getMaxActivePortalLimit(Player player) {
 
-        if (!getConfig().getBoolean("metadata.track-active-portal-counts")) {
+        if (!settings.isTrackActivePortalCounts()) {
             return null;
         }
-        ConfigurationSection ymlGroups = getConfig().getConfigurationSection("groups");
-        if (ymlGroups != null) {
-
-            Set<String> groups = ymlGroups.getKeys(false);
-            for (String group : groups) {
-
-                if (player.hasPermission("teleportals.group." + group)) {
-                    String key = group + ".max-active-portals";
-                    return ymlGroups.contains(key) ? ymlGroups.getInt(key) : null;
-                }
-            }
-        }
-        return null;
+        return getGroupPolicy(player).getMaxActivePortals();
     }
 
     /**
@@ -566,7 +1106,7 @@ public class TeleportalsPlugin extends JavaPlugin implements Listener {
      */
     public int getActivePortalCount(UUID uuid) {
 
-        if (!getConfig().getBoolean("metadata.track-active-portal-counts")) {
+        if (!settings.isTrackActivePortalCounts()) {
             return 0;
         }
         ConfigurationSection ymlPlayerActivePortalCounts =
@@ -589,7 +1129,7 @@ public class TeleportalsPlugin extends JavaPlugin implements Listener {
      */
     public void augActivePortalCount(UUID uuid, int amount) {
 
-        if (!getConfig().getBoolean("metadata.track-active-portal-counts")) {
+        if (!settings.isTrackActivePortalCounts()) {
             return;
         }
         ConfigurationSection ymlPlayerActivePortalCounts =
@@ -612,35 +1152,14 @@ public class TeleportalsPlugin extends JavaPlugin implements Listener {
      * Test if players are allowed to link teleportals across different worlds.
      */
     public boolean isCrossWorldActivationAllowed() {
-        return getConfig().getBoolean("teleportal.cross-world", true);
+        return settings.isCrossWorld();
     }
 
     /**
      * Test if the player can activate a teleportal in the given world.
      */
     public boolean isWorldOkayForPortalActivation(Player player, World world) {
-        ConfigurationSection ymlGroups = getConfig().getConfigurationSection("groups");
-        if (ymlGroups != null) {
-
-            Set<String> groups = ymlGroups.getKeys(false);
-            for (String group : groups) {
-
-                if (player.hasPermission("teleportals.group." + group)) {
-                    List<String> whitelist = ymlGroups.getStringList(group + ".worlds-can-activate");
-                    if (!whitelist.isEmpty()) {
-                        return whitelist.contains(world.getName());
-                    }
-                    else {
-                        List<String> blacklist = ymlGroups.getStringList(group + ".worlds-cannot-activate");
-                        if (!blacklist.isEmpty()) {
-                            return !blacklist.contains(world.getName());
-                        }
-
-                    }
-                }
-            }
-        }
-        return true;
+        return getGroupPolicy(player).canActivateIn(world);
     }
 
     /**
@@ -649,8 +1168,8 @@ public class TeleportalsPlugin extends JavaPlugin implements Listener {
      */
     public void sendMsg(CommandSender sender, @NotNull String key, @Nullable Object... objs) {
 
-        String template = getConfig().getString("messages." + key);
-        sender.sendMessage(getTag() + Utils.format((template == null) ? key : template, objs));
+        Settings settings = this.settings;
+        sender.sendMessage(settings.getTag() + settings.formatMessage(key, objs));
     }
 
     /**
@@ -670,31 +1189,85 @@ public class TeleportalsPlugin extends JavaPlugin implements Listener {
     }
 
     /**
-     * Create a new gateway prism item stack.
+     * Send the plugin's timing and throughput metrics to the given sender.
      */
-    public @NotNull ItemStack makeGatewayPrism(int amount) {
+    public void sendStats(@NotNull CommandSender sender) {
 
-        String matName = getConfig().getString("gateway-prism.material");
-        Material mat;
-        try {
-            mat = Material.valueOf(matName);
+        sendMsg(sender, "stats-header");
+        for (Metrics.Timing timing : Metrics.Timing.values()) {
+            Metrics.Timer timer = metrics.get(timing);
+            sendMsg(sender, "stats-timer", timing.getName(), timer.getCount(),
+                    timer.getMeanMicros(), timer.getP99Micros(), timer.getMaxMicros());
         }
-        catch (IllegalArgumentException ex) {
-            getLogger().warning(String.format("[Config] The material '%s' at '%s' is invalid.", matName, "gateway-prism.material"));
-            getLogger().warning("Using the default value: 'GOLDEN_SWORD'.");
-            mat = Material.GOLDEN_SWORD;
+        for (Map.Entry<String, Integer> gauge : metrics.readGauges().entrySet()) {
+            sendMsg(sender, "stats-gauge", gauge.getKey(), gauge.getValue());
+        }
+    }
+
+    /**
+     * Deactivate the given teleportal, dropping its gateway prism if they are reusable,
+     * and take it off its owner's active teleportal count.
+     */
+    public void deactivateTeleportal(@NotNull Teleportal teleportal) {
+
+        // the owner is stored with the teleportal, so read it before the teleportal is removed...
+        String name = teleportal.getPortalName();
+        teleportal.deactivate(settings.isGatewayPrismReusable());
+
+        if (name != null) {
+            try {
+                augActivePortalCount(UUID.fromString(name), -1);
+            }
+            catch (IllegalArgumentException ignored) {
+            }
         }
+    }
+
+    /**
+     * Send the given player the activated teleportals nearest to them within the given radius.
+     */
+    public void sendNearby(@NotNull Player player, int radius) {
 
-        ItemStack item = new ItemStack(mat, amount);
+        Location loc = player.getLocation();
+        long[] found = registry.getIndex().nearest(player.getWorld().getUID(),
+                loc.getX(), loc.getY(), loc.getZ(), NEAR_LIMIT, radius);
+
+        if (found.length == 0) {
+            sendMsg(player, "near-none", radius);
+            return;
+        }
+        sendMsg(player, "near-header", found.length, radius);
+        for (long anchor : found) {
+            int x = Utils.unpackBlockX(anchor);
+            int y = Utils.unpackBlockY(anchor);
+            int z = Utils.unpackBlockZ(anchor);
+            sendMsg(player, "near-entry", x, y, z, loc.distance(new Location(player.getWorld(), x + 0.5, y + 0.5, z + 0.5)));
+        }
+    }
 
-        String name = getConfig().getString("gateway-prism.display");
-        List<String> lore = getConfig().getStringList("gateway-prism.lore");
+    /**
+     * Send the given page of the activated teleportals in the given world.
+     * Returns false if the page does not exist.
+     */
+    public boolean sendList(@NotNull CommandSender sender, @NotNull World world, int page) {
 
-        Utils.setDisplayName(item, (name == null) ? null : Utils.format(name));
-        Utils.addLore(item, Utils.format("&8&o") + TeleportalsPlugin.getKey("gateway_prism").toString());
-        for (String line : lore) {
-            Utils.addLore(item, Utils.format(line));
+        long[] anchors = registry.getIndex().list(world.getUID());
+        int pages = Math.max(1, (anchors.length + LIST_PAGE_SIZE - 1) / LIST_PAGE_SIZE);
+        if (page < 1 || page > pages) {
+            return false;
+        }
+        sendMsg(sender, "list-header", world.getName(), anchors.length, page, pages);
+        for (int i = (page - 1) * LIST_PAGE_SIZE; i < Math.min(anchors.length, page * LIST_PAGE_SIZE); i++) {
+            sendMsg(sender, "list-entry",
+                    Utils.unpackBlockX(anchors[i]), Utils.unpackBlockY(anchors[i]), Utils.unpackBlockZ(anchors[i]));
         }
-        return item;
+        return true;
+    }
+
+    /**
+     * Create a new gateway prism item stack.
+     */
+    public @NotNull ItemStack makeGatewayPrism(int amount) {
+        return settings.makeGatewayPrism(amount);
     }
 }
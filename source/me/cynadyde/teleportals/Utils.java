@@ -19,9 +19,14 @@ import org.bukkit.inventory.ShapedRecipe;
 import org.bukkit.inventory.ShapelessRecipe;
 import org.bukkit.inventory.meta.ItemMeta;
 import org.bukkit.util.EulerAngle;
+import org.bukkit.util.io.BukkitObjectInputStream;
+import org.bukkit.util.io.BukkitObjectOutputStream;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.IllegalFormatException;
@@ -94,6 +99,38 @@ public class Utils {
         item.setItemMeta(itemMeta);
     }
 
+    /**
+     * Get the serialized form of the given item stack, including all of its meta.
+     */
+    public static @NotNull byte[] itemToBytes(@NotNull ItemStack item) {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BukkitObjectOutputStream out = new BukkitObjectOutputStream(bytes)) {
+            out.writeObject(item);
+        }
+        catch (IOException ex) {
+            throw new IllegalArgumentException("unserializable item stack", ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Read an item stack from its serialized form, else null if it is malformed.
+     */
+    public static @Nullable ItemStack itemFromBytes(@Nullable byte[] bytes) {
+
+        if (bytes == null) {
+            return null;
+        }
+        try (BukkitObjectInputStream in = new BukkitObjectInputStream(new ByteArrayInputStream(bytes))) {
+            Object item = in.readObject();
+            return (item instanceof ItemStack) ? (ItemStack) item : null;
+        }
+        catch (IOException | ClassNotFoundException ex) {
+            return null;
+        }
+    }
+
     /**
      * Add the specified lines to the given item's lore.
      */
@@ -259,36 +296,53 @@ public class Utils {
     }
 
     /**
-     * Create a key representing the given block in a world.
+     * Pack the given block coordinates into a single long.
+     * X and Z keep 26 bits each and Y keeps the remaining 12, all signed.
      */
-    public static @NotNull String blockToKey(@NotNull Block block) {
-
-        return String.format("%s,%d,%d,%d", block.getWorld().getName(), block.getX(), block.getY(), block.getZ());
+    public static long packBlock(int x, int y, int z) {
+        return ((long) x & 0x3FFFFFFL) | (((long) z & 0x3FFFFFFL) << 26) | ((long) y << 52);
     }
 
     /**
-     * Get a block in a world represented by the given key.
+     * Get the x coordinate of a packed block position.
      */
-    public static @Nullable Block keyToBlock(@NotNull String key) {
-
-        try {
-            String[] tokens = key.split(",");
+    public static int unpackBlockX(long packed) {
+        return (int) (packed << 38 >> 38);
+    }
 
-            World world = Bukkit.getWorld(tokens[0]);
+    /**
+     * Get the y coordinate of a packed block position.
+     */
+    public static int unpackBlockY(long packed) {
+        return (int) (packed >> 52);
+    }
 
-            if (world != null) {
+    /**
+     * Get the z coordinate of a packed block position.
+     */
+    public static int unpackBlockZ(long packed) {
+        return (int) (packed << 12 >> 38);
+    }
 
-                int xPos = Integer.parseInt(tokens[1]);
-                int yPos = Integer.parseInt(tokens[2]);
-                int zPos = Integer.parseInt(tokens[3]);
+    /**
+     * Pack the given chunk coordinates into a single long.
+     */
+    public static long packChunk(int chunkX, int chunkZ) {
+        return ((long) chunkX & 0xFFFFFFFFL) | (((long) chunkZ & 0xFFFFFFFFL) << 32);
+    }
 
-                return world.getBlockAt(xPos, yPos, zPos);
-            }
-        }
-        catch (Exception ignored) {
+    /**
+     * Get the x coordinate of a packed chunk position.
+     */
+    public static int unpackChunkX(long packed) {
+        return (int) packed;
+    }
 
-        }
-        return null;
+    /**
+     * Get the z coordinate of a packed chunk position.
+     */
+    public static int unpackChunkZ(long packed) {
+        return (int) (packed >> 32);
     }
 
     /**
@@ -328,25 +382,52 @@ public class Utils {
 
         marker.setRightArmPose(new EulerAngle(-Math.PI / 2, 0, 0));
         Objects.requireNonNull(marker.getEquipment()).setItemInMainHand(heldItem);
+
+        TeleportalsPlugin.getInstance().getMarkerCache().put(block, marker);
+    }
+
+    /**
+     * Check if the given entity is an armor stand marker with the given key.
+     */
+    public static boolean isMarker(@NotNull Entity entity, @NotNull String key) {
+
+        if (entity.getType() == EntityType.ARMOR_STAND) {
+            String name = entity.getCustomName();
+
+            return name != null && ChatColor.stripColor(name).equalsIgnoreCase(key);
+        }
+        return false;
     }
 
     /**
      * Get an armor stand marker with the given key at the specified block.
+     * The marker cache is checked first, and the world is only searched if the block's chunk is not indexed.
      */
     public static @Nullable ArmorStand getMarker(@NotNull Block block, @NotNull String key) {
 
+        long start = System.nanoTime();
+        ArmorStand marker = findMarker(block, key);
+        TeleportalsPlugin.getInstance().getMetrics().record(Metrics.Timing.MARKER_LOOKUP, start);
+        return marker;
+    }
+
+    private static @Nullable ArmorStand findMarker(@NotNull Block block, @NotNull String key) {
+
+        MarkerCache cache = TeleportalsPlugin.getInstance().getMarkerCache();
+        ArmorStand cached = cache.get(block);
+        if (cached != null) {
+            return isMarker(cached, key) ? cached : null;
+        }
+        if (cache.isIndexed(block)) {
+            return null;
+        }
+
         Location origin = block.getLocation().add(0.5, 0.5, 0.5);
         for (Entity entity : block.getWorld().getNearbyEntities(origin, 0.5, 0.5, 0.5)) {
 
-            if (entity.getType() == EntityType.ARMOR_STAND) {
-                ArmorStand armorStand = (ArmorStand) entity;
-                String name = armorStand.getCustomName();
-
-                if (name != null) {
-                    if (ChatColor.stripColor(name).equalsIgnoreCase(key)) {
-                        return armorStand;
-                    }
-                }
+            if (isMarker(entity, key)) {
+                cache.put(block, (ArmorStand) entity);
+                return (ArmorStand) entity;
             }
         }
         return null;
@@ -357,18 +438,21 @@ public class Utils {
      */
     public static void removeMarker(@NotNull Block block, @NotNull String key) {
 
+        MarkerCache cache = TeleportalsPlugin.getInstance().getMarkerCache();
+        if (cache.isIndexed(block)) {
+            ArmorStand cached = cache.get(block);
+            if (cached != null && isMarker(cached, key)) {
+                cache.remove(block);
+                cached.remove();
+            }
+            return;
+        }
+
         Location origin = block.getLocation().add(0.5, 0.5, 0.5);
         for (Entity entity : block.getWorld().getNearbyEntities(origin, 0.5, 0.5, 0.5)) {
 
-            if (entity.getType() == EntityType.ARMOR_STAND) {
-                ArmorStand armorStand = (ArmorStand) entity;
-                String name = armorStand.getCustomName();
-
-                if (name != null) {
-                    if (ChatColor.stripColor(name).equalsIgnoreCase(key)) {
-                        armorStand.remove();
-                    }
-                }
+            if (isMarker(entity, key)) {
+                entity.remove();
             }
         }
     }
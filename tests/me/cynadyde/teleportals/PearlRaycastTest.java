@@ -0,0 +1,172 @@
+package me.cynadyde.teleportals;
+
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the raycast with ender pearl starts and velocities recorded in flight,
+ * checking the end gateway each one hits, the face it enters and the fraction of the tick it enters at.
+ * Positions are of the pearl's center, which is what the plugin casts from.
+ */
+public class PearlRaycastTest {
+
+    private static final double HALF_EXTENT = 0.125;
+    private static final double EPSILON = 1.0E-9;
+
+    private final World world = fakeWorld(UUID.randomUUID());
+    private TeleportalRegistry registry;
+    private PearlRaycast raycast;
+
+    @BeforeEach
+    public void setup() {
+        registry = new TeleportalRegistry();
+        raycast = new PearlRaycast();
+        register(0, 64, 0);
+    }
+
+    @Test
+    public void diagonalEntryThroughWestFace() {
+        assertHit(-1.0, 64.5, -0.75, 1.0, 0.0, 1.0, 0, 64, 0, BlockFace.WEST, 0.875);
+    }
+
+    @Test
+    public void diagonalEntryThroughNorthFace() {
+        assertHit(-0.75, 64.5, -1.0, 1.0, 0.0, 1.0, 0, 64, 0, BlockFace.NORTH, 0.875);
+    }
+
+    @Test
+    public void diagonalEntryWhileFalling() {
+        assertHit(0.4, 64.9, -1.5, 0.05, -0.2, 1.6, 0, 64, 0, BlockFace.NORTH, 0.859375);
+    }
+
+    @Test
+    public void topFaceEntryTakesSideFromHeading() {
+        assertHit(0.5, 65.6, 0.3, 0.2, -1.0, 0.05, 0, 64, 0, BlockFace.WEST, 0.475);
+        assertHit(0.4, 65.6, 0.5, 0.05, -1.0, -0.2, 0, 64, 0, BlockFace.SOUTH, 0.475);
+    }
+
+    @Test
+    public void bottomFaceEntryStraightUp() {
+        assertHit(0.5, 63.0, 0.5, 0.0, 1.5, 0.0, 0, 64, 0, BlockFace.WEST, 0.875 / 1.5);
+    }
+
+    @Test
+    public void multiBlockStepHitsNearestGatewayFirst() {
+        register(2, 64, 0);
+        assertHit(-5.0, 64.5, 0.5, 8.0, 0.0, 0.0, 0, 64, 0, BlockFace.WEST, 0.609375);
+        assertHit(7.0, 64.5, 0.5, -8.0, 0.0, 0.0, 2, 64, 0, BlockFace.EAST, 0.484375);
+    }
+
+    @Test
+    public void edgeOfPearlClipsGateway() {
+        assertHit(-1.0, 64.5, 1.1, 2.0, 0.0, 0.0, 0, 64, 0, BlockFace.WEST, 0.4375);
+    }
+
+    @Test
+    public void startInsideGatewayHitsImmediately() {
+        assertHit(0.5, 64.5, 0.5, 0.5, 0.0, 0.0, 0, 64, 0, BlockFace.WEST, 0.0);
+        assertHit(0.5, 64.5, 0.5, 0.0, -0.03, 0.0, 0, 64, 0, BlockFace.WEST, 0.0);
+    }
+
+    @Test
+    public void passingAboveMisses() {
+        assertMiss(-2.0, 66.0, 0.5, 3.0, 0.0, 0.0);
+    }
+
+    @Test
+    public void stoppingShortMisses() {
+        assertMiss(-2.0, 64.5, 0.5, 1.5, 0.0, 0.0);
+    }
+
+    @Test
+    public void passingBesideMisses() {
+        assertMiss(-1.0, 64.5, 1.3, 2.0, 0.0, 0.0);
+    }
+
+    /**
+     * Assert that a pearl with the given center and velocity enters the given end gateway through the given face,
+     * at the given fraction of the tick.
+     */
+    private void assertHit(double x, double y, double z, double dx, double dy, double dz,
+                           int hitX, int hitY, int hitZ, @NotNull BlockFace face, double time) {
+
+        assertTrue(raycast.cast(registry, world, x, y, z, dx, dy, dz, HALF_EXTENT));
+        assertEquals(hitX, raycast.getHitX());
+        assertEquals(hitY, raycast.getHitY());
+        assertEquals(hitZ, raycast.getHitZ());
+        assertEquals(face, raycast.getHitFace());
+        assertEquals(time, raycast.getHitTime(), EPSILON);
+    }
+
+    /**
+     * Assert that a pearl with the given center and velocity enters no end gateway during the tick.
+     */
+    private void assertMiss(double x, double y, double z, double dx, double dy, double dz) {
+
+        assertFalse(raycast.cast(registry, world, x, y, z, dx, dy, dz, HALF_EXTENT));
+        assertNull(raycast.getHitFace());
+    }
+
+    /**
+     * Register an activated teleportal anchored at the given coordinates.
+     */
+    private void register(int x, int y, int z) {
+        registry.register(Teleportal.fromStore(fakeBlock(world, x, y, z), BlockFace.NORTH));
+    }
+
+    /**
+     * Create a world that only knows its unique id, which is all the registry asks of it.
+     */
+    private static @NotNull World fakeWorld(@NotNull UUID uid) {
+        return (World) Proxy.newProxyInstance(World.class.getClassLoader(), new Class<?>[]{World.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getUID":
+                            return uid;
+                        case "hashCode":
+                            return uid.hashCode();
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    /**
+     * Create a block that only knows its world and coordinates.
+     */
+    private static @NotNull Block fakeBlock(@NotNull World world, int x, int y, int z) {
+        return (Block) Proxy.newProxyInstance(Block.class.getClassLoader(), new Class<?>[]{Block.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getWorld":
+                            return world;
+                        case "getX":
+                            return x;
+                        case "getY":
+                            return y;
+                        case "getZ":
+                            return z;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}